@@ -0,0 +1,89 @@
+package cn.yescallop.fluenturi;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A sequence of characters backed by a range of a byte array,
+ * each byte being treated as an ISO-8859-1 character.
+ * <p>
+ * A legal URI reference consists of US-ASCII characters only,
+ * so an octet above 0x7F is never accepted by the scanning methods
+ * in {@link CharUtils}.
+ *
+ * @author Scallop Ye
+ */
+final class AsciiString implements CharSequence {
+
+    private final byte[] value;
+    private final int offset;
+    private final int length;
+
+    AsciiString(byte[] value, int offset, int length) {
+        if ((offset | length) < 0 || length > value.length - offset)
+            throw new IndexOutOfBoundsException();
+        this.value = value;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Creates a copy of this sequence, which owns its bytes.
+     */
+    AsciiString copy() {
+        return new AsciiString(Arrays.copyOfRange(value, offset, offset + length), 0, length);
+    }
+
+    /**
+     * Creates a sequence of the given chars, which must all be below 0x100.
+     */
+    static AsciiString of(CharSequence cs) {
+        return of(cs, 0, cs.length());
+    }
+
+    /**
+     * Creates a sequence of the chars in the given range,
+     * which must all be below 0x100.
+     */
+    static AsciiString of(CharSequence cs, int start, int end) {
+        int len = end - start;
+        byte[] b = new byte[len];
+        for (int i = 0; i < len; i++)
+            b[i] = (byte) cs.charAt(start + i);
+        return new AsciiString(b, 0, len);
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        out.write(value, offset, length);
+    }
+
+    void writeTo(ByteBuffer buf) {
+        buf.put(value, offset, length);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (value[offset + index] & 0xFF);
+    }
+
+    /**
+     * Returns the given subsequence as a {@link String}.
+     */
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new String(value, offset + start, end - start, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public String toString() {
+        return new String(value, offset, length, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,76 @@
+package cn.yescallop.fluenturi;
+
+/**
+ * Result of parsing URI-reference strings in a batch, which holds
+ * the parsed Uris and the failures in parallel arrays, in which
+ * exactly one of the elements at each index is not null.
+ *
+ * @author Scallop Ye
+ * @see Uri#parseAll(java.util.List)
+ */
+public final class BatchParseResult {
+
+    private final Uri[] uris;
+    private final ParseResult[] failures;
+    private final int failureCount;
+
+    BatchParseResult(Uri[] uris, ParseResult[] failures, int failureCount) {
+        this.uris = uris;
+        this.failures = failures;
+        this.failureCount = failureCount;
+    }
+
+    /**
+     * Gets the number of input strings.
+     */
+    public int size() {
+        return uris.length;
+    }
+
+    /**
+     * Gets the number of input strings which failed to be parsed.
+     */
+    public int failureCount() {
+        return failureCount;
+    }
+
+    /**
+     * Gets the Uri parsed from the input string at the given index.
+     *
+     * @param index the index of the input string
+     * @return the Uri, or null if failed
+     */
+    public Uri uri(int index) {
+        return uris[index];
+    }
+
+    /**
+     * Gets the failure of parsing the input string at the given index.
+     *
+     * @param index the index of the input string
+     * @return the failure, or null if succeeded
+     */
+    public ParseResult failure(int index) {
+        return failures[index];
+    }
+
+    /**
+     * Gets the parsed Uris, each at the index of its input string,
+     * or null if failed.
+     * <p>
+     * The array is not copied.
+     */
+    public Uri[] uris() {
+        return uris;
+    }
+
+    /**
+     * Gets the failures, each at the index of its input string,
+     * or null if succeeded.
+     * <p>
+     * The array is not copied.
+     */
+    public ParseResult[] failures() {
+        return failures;
+    }
+}
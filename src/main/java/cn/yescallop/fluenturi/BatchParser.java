@@ -0,0 +1,50 @@
+package cn.yescallop.fluenturi;
+
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Fork/join task for parsing URI-reference strings in parallel,
+ * which computes the failure count.
+ *
+ * @author Scallop Ye
+ */
+final class BatchParser extends RecursiveTask<Integer> {
+
+    private static final long serialVersionUID = 1L;
+
+    // Ranges no longer than this are parsed sequentially
+    private static final int THRESHOLD = 1024;
+
+    private final String[] in;
+    private final int from;
+    private final int to;
+    private final Uri[] uris;
+    private final ParseResult[] failures;
+
+    private BatchParser(String[] in, int from, int to,
+                        Uri[] uris, ParseResult[] failures) {
+        this.in = in;
+        this.from = from;
+        this.to = to;
+        this.uris = uris;
+        this.failures = failures;
+    }
+
+    static BatchParseResult parse(String[] in) {
+        Uri[] uris = new Uri[in.length];
+        ParseResult[] failures = new ParseResult[in.length];
+        int failureCount = new BatchParser(in, 0, in.length, uris, failures).invoke();
+        return new BatchParseResult(uris, failures, failureCount);
+    }
+
+    @Override
+    protected Integer compute() {
+        if (to - from <= THRESHOLD)
+            return UriImpl.parseAll(in, from, to, uris, failures);
+        int mid = (from + to) >>> 1;
+        BatchParser left = new BatchParser(in, from, mid, uris, failures);
+        left.fork();
+        int right = new BatchParser(in, mid, to, uris, failures).compute();
+        return left.join() + right;
+    }
+}
@@ -0,0 +1,79 @@
+package cn.yescallop.fluenturi;
+
+import static cn.yescallop.fluenturi.CharUtils.*;
+
+/**
+ * Character class compiled from a mask pair in {@link CharUtils},
+ * which tells whether a char belongs to it with a single table lookup.
+ *
+ * @author Scallop Ye
+ * @see <a href="https://www.ietf.org/rfc/rfc3986.html#section-2">Section 2: Characters, RFC 3986</a>
+ */
+public final class CharClass {
+
+    public static final CharClass DIGIT = new CharClass(L_DIGIT, H_DIGIT);
+    public static final CharClass ALPHA = new CharClass(L_ALPHA, H_ALPHA);
+    public static final CharClass HEXDIG = new CharClass(L_HEXDIG, H_HEXDIG);
+    public static final CharClass SUB_DELIMS = new CharClass(L_SUB_DELIMS, H_SUB_DELIMS);
+    public static final CharClass UNRESERVED = new CharClass(L_UNRESERVED, H_UNRESERVED);
+    public static final CharClass PCHAR = new CharClass(L_PCHAR, H_PCHAR);
+    public static final CharClass SCHEME = new CharClass(L_SCHEME, H_SCHEME);
+    public static final CharClass USERINFO = new CharClass(L_USERINFO, H_USERINFO);
+    public static final CharClass REG_NAME = new CharClass(L_REG_NAME, H_REG_NAME);
+    public static final CharClass PATH = new CharClass(L_PATH, H_PATH);
+    public static final CharClass QUERY_FRAGMENT = new CharClass(L_QUERY_FRAGMENT, H_QUERY_FRAGMENT);
+    public static final CharClass QUERY_PARAM = new CharClass(L_QUERY_PARAM, H_QUERY_PARAM);
+    public static final CharClass ZONE_ID = new CharClass(L_ZONE_ID, H_ZONE_ID);
+
+    // segment-nz-nc = 1*( unreserved / pct-encoded / sub-delims / "@" )
+    static final CharClass SEGMENT_NC = new CharClass(L_PCHAR & ~0x400000000000000L, H_PCHAR);
+
+    private static final CharClass[] PREDEFINED = {
+            DIGIT, ALPHA, HEXDIG, SUB_DELIMS, UNRESERVED, PCHAR, SCHEME,
+            USERINFO, REG_NAME, PATH, QUERY_FRAGMENT, QUERY_PARAM, ZONE_ID
+    };
+
+    private final long lowMask;
+    private final long highMask;
+    // Whether each of the ASCII chars belongs to this class
+    final boolean[] table = new boolean[128];
+
+    private CharClass(long lowMask, long highMask) {
+        this.lowMask = lowMask;
+        this.highMask = highMask;
+        // 0 doesn't have a slot in the mask. So, it never matches.
+        for (int c = 1; c < 64; c++)
+            table[c] = ((1L << c) & lowMask) != 0;
+        for (int c = 64; c < 128; c++)
+            table[c] = ((1L << (c ^ 64)) & highMask) != 0;
+    }
+
+    /**
+     * Gets the character class compiled from the given mask pair.
+     *
+     * @param lowMask low mask
+     * @param highMask high mask
+     * @return a predefined class if any of them matches, or a new one
+     */
+    public static CharClass of(long lowMask, long highMask) {
+        for (CharClass cc : PREDEFINED) {
+            if (cc.lowMask == lowMask && cc.highMask == highMask)
+                return cc;
+        }
+        return new CharClass(lowMask, highMask);
+    }
+
+    /**
+     * Tells whether the given char belongs to this class.
+     */
+    public boolean matches(char c) {
+        return c < 128 && table[c];
+    }
+
+    /**
+     * Tells whether percent-encoded octets are allowed in this class.
+     */
+    public boolean allowsPctEncoded() {
+        return (lowMask & L_PCT_ENCODED) != 0;
+    }
+}
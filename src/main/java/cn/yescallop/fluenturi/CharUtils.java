@@ -1,11 +1,10 @@
 package cn.yescallop.fluenturi;
 
+import java.io.IOException;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
-import java.nio.charset.CharsetDecoder;
-import java.nio.charset.CharsetEncoder;
-import java.nio.charset.CodingErrorAction;
-import java.nio.charset.StandardCharsets;
+import java.nio.ReadOnlyBufferException;
+import java.util.function.ObjIntConsumer;
 
 /**
  * Utilities for character checking and en/decoding.
@@ -15,29 +14,12 @@ import java.nio.charset.StandardCharsets;
  */
 public final class CharUtils {
 
-    // Thread-local UTF-8 encoder and decoder
-    private static final ThreadLocal<CharsetEncoder> ENCODER =
-            ThreadLocal.withInitial(StandardCharsets.UTF_8::newEncoder);
-    private static final ThreadLocal<CharsetDecoder> DECODER =
-            ThreadLocal.withInitial(() -> StandardCharsets.UTF_8.newDecoder()
-                    .onMalformedInput(CodingErrorAction.REPLACE)
-                    .onUnmappableCharacter(CodingErrorAction.REPLACE));
-
     private CharUtils() {
         // no instance
     }
 
-    private static boolean match(char c, long lowMask, long highMask) {
-        if (c == 0) // 0 doesn't have a slot in the mask. So, it never matches.
-            return false;
-        if (c < 64)
-            return ((1L << c) & lowMask) != 0;
-        if (c < 128)
-            return ((1L << (c ^ 64)) & highMask) != 0;
-        return false;
-    }
-
-    // Character-class masks from RFC 3986, which are tested in CharUtilsTest
+    // Character-class masks from RFC 3986, which are tested in CharUtilsTest,
+    // and compiled into tables in CharClass
 
     public static final long L_DIGIT = 0x3FF000000000000L;
     public static final long H_DIGIT = 0L;
@@ -110,23 +92,36 @@ public final class CharUtils {
             '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'
     };
 
-    private static void appendEscape(StringBuilder sb, byte b) {
-        sb.append('%');
-        sb.append(HEX_DIGITS[(b >> 4) & 0x0F]);
-        sb.append(HEX_DIGITS[b & 0x0F]);
+    // Hex digits "XX" of the escape sequences of all octets, two chars each
+    private static final char[] ESCAPES = new char[256 * 2];
+
+    static {
+        for (int b = 0; b < 256; b++) {
+            ESCAPES[b * 2] = HEX_DIGITS[b >> 4];
+            ESCAPES[b * 2 + 1] = HEX_DIGITS[b & 0x0F];
+        }
     }
 
-    private static void appendEncoded(StringBuilder sb, CharBuffer cb, ByteBuffer bb) {
-        CharsetEncoder enc = ENCODER.get();
-        bb.clear();
-        enc.reset();
-        enc.encode(cb, bb, true);
-        enc.flush(bb);
-        bb.flip();
+    private static void appendEscape(Appendable out, int b) throws IOException {
+        out.append('%');
+        out.append(ESCAPES[b * 2]);
+        out.append(ESCAPES[b * 2 + 1]);
+    }
 
-        while (bb.hasRemaining()) {
-            appendEscape(sb, bb.get());
+    // Appends the escaped UTF-8 octets of the given code point
+    private static void appendEncoded(Appendable out, int cp) throws IOException {
+        if (cp < 0x800) {
+            appendEscape(out, 0xC0 | (cp >> 6));
+        } else {
+            if (cp < 0x10000) {
+                appendEscape(out, 0xE0 | (cp >> 12));
+            } else {
+                appendEscape(out, 0xF0 | (cp >> 18));
+                appendEscape(out, 0x80 | ((cp >> 12) & 0x3F));
+            }
+            appendEscape(out, 0x80 | ((cp >> 6) & 0x3F));
         }
+        appendEscape(out, 0x80 | (cp & 0x3F));
     }
 
     /**
@@ -139,7 +134,19 @@ public final class CharUtils {
      * @return the encoded string
      */
     public static String encode(String s, long lowMask, long highMask) {
-        return encode(s, lowMask, highMask, false);
+        return encode(s, CharClass.of(lowMask, highMask), false);
+    }
+
+    /**
+     * Encodes any characters in a string that are not permitted
+     * by the given character class.
+     *
+     * @param s an input string
+     * @param cc a character class
+     * @return the encoded string
+     */
+    public static String encode(String s, CharClass cc) {
+        return encode(s, cc, false);
     }
 
     /**
@@ -155,52 +162,143 @@ public final class CharUtils {
     public static String encode(String s,
                                 long lowMask, long highMask,
                                 boolean encodeSpaceAsPlus) {
-        if ((lowMask & L_PCT_ENCODED) == 0)
-            throw new IllegalArgumentException("Mask pair not for encoding");
+        return encode(s, CharClass.of(lowMask, highMask), encodeSpaceAsPlus);
+    }
 
-        StringBuilder sb = null;
-        char[] ca = null;
-        CharBuffer cb = null;
-        ByteBuffer bb = null;
+    /**
+     * Encodes any characters in a string that are not permitted
+     * by the given character class.
+     * <p>
+     * Characters are encoded in UTF-8, with any unpaired surrogate
+     * replaced by U+FFFD.
+     *
+     * @param s an input string
+     * @param cc a character class
+     * @param encodeSpaceAsPlus whether encoding space (" ") as plus ("+")
+     * @return the encoded string, or the input string if nothing is encoded
+     */
+    public static String encode(String s, CharClass cc,
+                                boolean encodeSpaceAsPlus) {
+        checkEncoding(cc);
+        int i = indexToEncode(s, cc);
+        if (i < 0)
+            return s;
+        StringBuilder sb = new StringBuilder(s.length() + 16);
+        sb.append(s, 0, i);
+        encodeRest(sb, s, i, cc, encodeSpaceAsPlus);
+        return sb.toString();
+    }
+
+    /**
+     * Tells whether any character in a char sequence is not permitted
+     * by the given character class, and needs to be encoded.
+     *
+     * @param s an input char sequence
+     * @param cc a character class
+     * @return whether the input needs to be encoded
+     */
+    public static boolean needsEncoding(CharSequence s, CharClass cc) {
+        return indexToEncode(s, cc) >= 0;
+    }
+
+    /**
+     * Encodes any characters in a char sequence that are not permitted
+     * by the given character class, and appends the result to
+     * the given string builder.
+     *
+     * @param sb a string builder
+     * @param s an input char sequence
+     * @param cc a character class
+     * @param encodeSpaceAsPlus whether encoding space (" ") as plus ("+")
+     * @return the string builder
+     */
+    public static StringBuilder encodeTo(StringBuilder sb, CharSequence s,
+                                         CharClass cc, boolean encodeSpaceAsPlus) {
+        checkEncoding(cc);
+        int i = indexToEncode(s, cc);
+        if (i < 0)
+            return sb.append(s);
+        sb.append(s, 0, i);
+        encodeRest(sb, s, i, cc, encodeSpaceAsPlus);
+        return sb;
+    }
+
+    /**
+     * Encodes any characters in a char sequence that are not permitted
+     * by the given character class, and appends the result to
+     * the given appendable.
+     *
+     * @param out an appendable
+     * @param s an input char sequence
+     * @param cc a character class
+     * @param encodeSpaceAsPlus whether encoding space (" ") as plus ("+")
+     * @throws IOException if an I/O error occurs
+     */
+    public static void encodeTo(Appendable out, CharSequence s,
+                                CharClass cc, boolean encodeSpaceAsPlus) throws IOException {
+        checkEncoding(cc);
+        int i = indexToEncode(s, cc);
+        if (i < 0) {
+            out.append(s);
+            return;
+        }
+        out.append(s, 0, i);
+        encodeRest(out, s, i, cc, encodeSpaceAsPlus);
+    }
+
+    private static void checkEncoding(CharClass cc) {
+        if (!cc.allowsPctEncoded())
+            throw new IllegalArgumentException("Character class not for encoding");
+    }
+
+    // Gets the index of the first char to be encoded, or -1 if none
+    private static int indexToEncode(CharSequence s, CharClass cc) {
+        boolean[] table = cc.table;
         int len = s.length();
         for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80 || !table[c])
+                return i;
+        }
+        return -1;
+    }
+
+    private static void encodeRest(StringBuilder sb, CharSequence s, int start,
+                                   CharClass cc, boolean encodeSpaceAsPlus) {
+        try {
+            encodeRest((Appendable) sb, s, start, cc, encodeSpaceAsPlus);
+        } catch (IOException e) {
+            throw new AssertionError(e); // never thrown by StringBuilder
+        }
+    }
+
+    // Encodes the chars from the given index, which is the first to be encoded
+    private static void encodeRest(Appendable out, CharSequence s, int start,
+                                 CharClass cc, boolean encodeSpaceAsPlus) throws IOException {
+        boolean[] table = cc.table;
+        int len = s.length();
+        for (int i = start; i < len; i++) {
             char c = s.charAt(i);
             if (c < 0x80) {
-                if (!match(c, lowMask, highMask)) {
-                    if (sb == null) {
-                        sb = new StringBuilder(len + 16);
-                        sb.append(s, 0, i);
-                    }
-                    if (encodeSpaceAsPlus && c == ' ') {
-                        sb.append('+');
-                    } else appendEscape(sb, (byte) c);
-                } else if (sb != null) {
-                    sb.append(c);
-                }
+                if (table[c]) {
+                    out.append(c);
+                } else if (encodeSpaceAsPlus && c == ' ') {
+                    out.append('+');
+                } else appendEscape(out, c);
+            } else if (!Character.isSurrogate(c)) {
+                appendEncoded(out, c);
             } else {
-                if (sb == null) {
-                    sb = new StringBuilder(len + 16);
-                    sb.append(s, 0, i);
-                }
-                if (ca == null) {
-                    ca = new char[2];
-                    cb = CharBuffer.wrap(ca);
-                    bb = ByteBuffer.allocate(4);
+                char d;
+                if (Character.isHighSurrogate(c) && i + 1 < len
+                        && Character.isLowSurrogate(d = s.charAt(i + 1))) {
+                    appendEncoded(out, Character.toCodePoint(c, d));
+                    i++;
+                } else {
+                    // An unpaired surrogate is replaced
+                    appendEncoded(out, 0xFFFD);
                 }
-
-                ca[0] = c;
-                int limit;
-                if (Character.isHighSurrogate(c)) {
-                    ca[1] = s.charAt(++i);
-                    limit = 2;
-                } else limit = 1;
-
-                cb.limit(limit);
-                cb.position(0);
-                appendEncoded(sb, cb, bb);
             }
         }
-        return (sb == null) ? s : sb.toString();
     }
 
     // -- Decoding --
@@ -215,8 +313,11 @@ public final class CharUtils {
         throw new IllegalArgumentException("Malformed percent-encoded octet");
     }
 
-    private static byte decode(char c1, char c2) {
-        return (byte) ((decode(c1) << 4) | decode(c2));
+    // Decodes the escape sequence at the given position, where charAt(p) == '%'
+    private static int decodeOctet(CharSequence s, int p, int n) {
+        if (p + 3 > n)
+            throw new IllegalArgumentException("Malformed percent-encoded octet");
+        return (decode(s.charAt(p + 1)) << 4) | decode(s.charAt(p + 2));
     }
 
     /**
@@ -231,88 +332,489 @@ public final class CharUtils {
 
     /**
      * Decodes a percent-encoded string.
+     * <p>
+     * Octets are decoded in UTF-8, with each malformed sequence
+     * replaced by U+FFFD.
      *
      * @param s an input string
      * @param decodePlusAsSpace whether decoding plus ("+") as space (" ")
-     * @return the decoded string
+     * @return the decoded string, or the input string if nothing is decoded
+     * @throws IllegalArgumentException if there is any malformed percent-encoded octet
      */
     public static String decode(String s, boolean decodePlusAsSpace) {
         int n = s.length();
-        if (n == 0) return s;
+        int i = 0;
+        while (i < n) {
+            char c = s.charAt(i);
+            if (c == '%' || (decodePlusAsSpace && c == '+'))
+                break;
+            i++;
+        }
+        if (i == n)
+            return s;
+
+        // No more chars are decoded than there are in the input.
+        char[] out = new char[n];
+        s.getChars(0, i, out, 0);
+        int len = decode(s, i, n, out, i, decodePlusAsSpace);
+        return new String(out, 0, len);
+    }
+
+    /**
+     * Decodes the given range of a percent-encoded char sequence,
+     * without creating a substring first.
+     *
+     * @param s an input char sequence
+     * @param start the index of the first char
+     * @param end the index after the last char
+     * @param decodePlusAsSpace whether decoding plus ("+") as space (" ")
+     * @return the decoded string
+     * @throws IllegalArgumentException if there is any malformed percent-encoded octet
+     * @throws IndexOutOfBoundsException if start or end is out of bounds
+     * @see #decode(String, boolean)
+     */
+    public static String decode(CharSequence s, int start, int end, boolean decodePlusAsSpace) {
+        if (start < 0 || start > end || end > s.length())
+            throw new IndexOutOfBoundsException();
+        int i = start;
+        while (i < end) {
+            char c = s.charAt(i);
+            if (c == '%' || (decodePlusAsSpace && c == '+'))
+                break;
+            i++;
+        }
+        if (i == end)
+            return s.subSequence(start, end).toString();
+        char[] out = new char[end - start];
+        int len = 0;
+        for (int k = start; k < i; k++)
+            out[len++] = s.charAt(k);
+        len = decode(s, i, end, out, len, decodePlusAsSpace);
+        return new String(out, 0, len);
+    }
+
+    /**
+     * Decodes a percent-encoded char sequence into octets, without
+     * decoding them as UTF-8.
+     * <p>
+     * Any char not percent-encoded is taken as its octets in UTF-8.
+     *
+     * @param s an input char sequence
+     * @param decodePlusAsSpace whether decoding plus ("+") as space (" ")
+     * @return the decoded octets
+     * @throws IllegalArgumentException if there is any malformed percent-encoded octet
+     */
+    public static byte[] decodeToBytes(CharSequence s, boolean decodePlusAsSpace) {
+        return decodeToBytes(s, 0, s.length(), decodePlusAsSpace);
+    }
 
-        ByteBuffer bb = null;
-        CharBuffer cb = null;
-        CharsetDecoder dec = null;
+    /**
+     * Decodes the given range of a percent-encoded char sequence into octets,
+     * without decoding them as UTF-8.
+     *
+     * @param s an input char sequence
+     * @param start the index of the first char
+     * @param end the index after the last char
+     * @param decodePlusAsSpace whether decoding plus ("+") as space (" ")
+     * @return the decoded octets
+     * @throws IllegalArgumentException if there is any malformed percent-encoded octet
+     * @throws IndexOutOfBoundsException if start or end is out of bounds
+     * @see #decodeToBytes(CharSequence, boolean)
+     */
+    public static byte[] decodeToBytes(CharSequence s, int start, int end,
+                                       boolean decodePlusAsSpace) {
+        if (start < 0 || start > end || end > s.length())
+            throw new IndexOutOfBoundsException();
+        byte[] out = new byte[decodedLength(s, start, end)];
+        decode(s, start, end, out, 0, decodePlusAsSpace);
+        return out;
+    }
 
-        char c = s.charAt(0);
+    /**
+     * Decodes a percent-encoded char sequence into octets in the given buffer,
+     * without decoding them as UTF-8.
+     * <p>
+     * The octets are written from the position of the buffer,
+     * which is then advanced by the number of them.
+     *
+     * @param dst a buffer
+     * @param s an input char sequence
+     * @param decodePlusAsSpace whether decoding plus ("+") as space (" ")
+     * @return the number of octets written
+     * @throws IllegalArgumentException if there is any malformed percent-encoded octet
+     * @throws java.nio.BufferOverflowException if the buffer has not enough room,
+     * in which case nothing is written
+     * @throws java.nio.ReadOnlyBufferException if the buffer is read-only
+     * @see #decodeToBytes(CharSequence, boolean)
+     */
+    public static int decodeInto(ByteBuffer dst, CharSequence s, boolean decodePlusAsSpace) {
+        int n = s.length();
+        int count = decodedLength(s, 0, n);
+        if (dst.isReadOnly())
+            throw new ReadOnlyBufferException();
+        if (dst.remaining() < count)
+            throw new BufferOverflowException();
+        int pos = dst.position();
+        if (dst.hasArray()) {
+            // Writes into the array directly, as most buffers are on heap
+            decode(s, 0, n, dst.array(), dst.arrayOffset() + pos, decodePlusAsSpace);
+        } else {
+            byte[] b = new byte[count];
+            decode(s, 0, n, b, 0, decodePlusAsSpace);
+            dst.put(b);
+        }
+        dst.position(pos + count);
+        return count;
+    }
 
-        for (int i = 0; i < n; ) {
-            if (c != '%') {
-                if (decodePlusAsSpace && c == '+') {
+    // Decodes the chars in [start, end), which are checked, into octets
+    // in the given array from the given index
+    private static void decode(CharSequence s, int start, int end,
+                               byte[] out, int len, boolean decodePlusAsSpace) {
+        int i = start;
+        while (i < end) {
+            char c = s.charAt(i);
+            if (c == '%') {
+                out[len++] = (byte) decodeOctet(s, i, end);
+                i += 3;
+            } else if (c < 0x80) {
+                out[len++] = (byte) (decodePlusAsSpace && c == '+' ? ' ' : c);
+                i++;
+            } else {
+                int cp = codePointAt(s, i, end);
+                len = putUtf8(out, len, cp);
+                i += Character.charCount(cp);
+            }
+        }
+    }
+
+    /**
+     * Visits the parameters in the given range of an encoded query,
+     * split by "&amp;" and then by the last "=", as in {@link Uri#queryParameters()}.
+     * <p>
+     * Nothing is created by this method, and the chars are not checked.
+     *
+     * @param s a char sequence containing the encoded query,
+     * such as a form body in application/x-www-form-urlencoded
+     * @param start the index of the first char
+     * @param end the index after the last char
+     * @param visitor the visitor called back for each non-empty parameter
+     * @throws IndexOutOfBoundsException if start or end is out of bounds
+     */
+    public static void visitQuery(CharSequence s, int start, int end, QueryVisitor visitor) {
+        if (start < 0 || start > end || end > s.length())
+            throw new IndexOutOfBoundsException();
+        for (int p = start; p <= end; ) {
+            int and = indexOf(s, '&', p, end);
+            if (and > p) { // skip empty params
+                int equals = lastIndexOf(s, '=', p, and);
+                if (equals == and) {
+                    visitor.visit(s, p, and, -1, -1);
+                } else {
+                    visitor.visit(s, p, equals, equals + 1, and);
+                }
+            }
+            p = and + 1;
+        }
+    }
+
+    // Finds a char in [from, to), returning to if not found
+    static int indexOf(CharSequence s, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) == c)
+                return i;
+        }
+        return to;
+    }
+
+    // Parses the chars in [start, end), decoded with plus as space,
+    // as a decimal long in the way of Long.parseLong, without decoding
+    // them into a string unless failing
+    static long parseLong(CharSequence s, int start, int end) {
+        // Accumulates negatively, as the range of long is asymmetric
+        long limit = -Long.MAX_VALUE;
+        boolean negative = false;
+        long res = 0;
+        int digits = 0;
+        int i = start;
+        while (i < end) {
+            boolean first = i == start;
+            int c = s.charAt(i);
+            if (c == '%') {
+                c = decodeOctet(s, i, end);
+                i += 3;
+            } else {
+                if (c == '+')
                     c = ' ';
-                    if (cb == null) {
-                        cb = CharBuffer.allocate(n);
-                        cb.put(s, 0, i);
-                    }
+                i++;
+            }
+            if (first && (c == '-' || c == '+')) {
+                if (c == '-') {
+                    negative = true;
+                    limit = Long.MIN_VALUE;
                 }
-                if (cb != null)
-                    cb.put(c);
-                if (++i >= n)
-                    break;
-                c = s.charAt(i);
                 continue;
             }
-            if (bb == null) {
-                bb = ByteBuffer.allocate(n);
-                dec = DECODER.get();
+            int d = c - '0';
+            if (d < 0 || d > 9 || res < limit / 10)
+                throw numberFormatException(s, start, end);
+            res *= 10;
+            if (res < limit + d)
+                throw numberFormatException(s, start, end);
+            res -= d;
+            digits++;
+        }
+        if (digits == 0)
+            throw numberFormatException(s, start, end);
+        return negative ? res : -res;
+    }
+
+    // Parses the chars in [start, end) as in parseLong,
+    // as a decimal int in the way of Integer.parseInt
+    static int parseInt(CharSequence s, int start, int end) {
+        long value = parseLong(s, start, end);
+        if ((int) value != value)
+            throw numberFormatException(s, start, end);
+        return (int) value;
+    }
+
+    private static NumberFormatException numberFormatException(CharSequence s, int start, int end) {
+        return new NumberFormatException("For input string: \"" + decode(s, start, end, true) + '"');
+    }
+
+    // Parses the chars in [start, end), decoded with plus as space,
+    // as "true" or "false" ignoring case, without decoding them into a string
+    static boolean parseBoolean(CharSequence s, int start, int end) {
+        if (asciiEqualsIgnoreCase(s, start, end, "true"))
+            return true;
+        if (asciiEqualsIgnoreCase(s, start, end, "false"))
+            return false;
+        throw new IllegalArgumentException("Not a boolean: \"" + decode(s, start, end, true) + '"');
+    }
+
+    // Tells whether the chars in [start, end), decoded with plus as space,
+    // equal the given string in lower case ASCII, ignoring case
+    private static boolean asciiEqualsIgnoreCase(CharSequence s, int start, int end, String str) {
+        int n = str.length();
+        int i = start;
+        int j = 0;
+        while (i < end) {
+            int c = s.charAt(i);
+            if (c == '%') {
+                c = decodeOctet(s, i, end);
+                i += 3;
+            } else {
+                i++;
             }
-            if (cb == null) {
-                cb = CharBuffer.allocate(n);
-                cb.put(s, 0, i);
+            if (j == n || (c | 0x20) != str.charAt(j++))
+                return false;
+        }
+        return j == n;
+    }
+
+    // Leading bits of the first octet of a code point by its length in UTF-8
+    private static final int[] UTF8_LEADING = {0, 0, 0xC0, 0xE0, 0xF0};
+
+    // Finds the last of a char in [from, to), returning to if not found
+    static int lastIndexOf(CharSequence s, char c, int from, int to) {
+        for (int i = to - 1; i >= from; i--) {
+            if (s.charAt(i) == c)
+                return i;
+        }
+        return to;
+    }
+
+    // Tells whether the chars in [start, end), decoded with plus as space,
+    // equal the given string, comparing escaped octets with the string
+    // in UTF-8 rather than decoding them
+    static boolean decodedEquals(CharSequence s, int start, int end, String str) {
+        int n = str.length();
+        int i = start;
+        int j = 0;
+        while (i < end) {
+            char c = s.charAt(i);
+            if (c != '%') {
+                if (j == n || (c == '+' ? ' ' : c) != str.charAt(j))
+                    return false;
+                i++;
+                j++;
+                continue;
             }
-            bb.clear();
-            while (true) {
-                byte b = decode(s.charAt(++i), s.charAt(++i));
-                bb.put(b);
-                if (++i >= n)
-                    break;
-                c = s.charAt(i);
-                if (c != '%')
-                    break;
+            if (j == n)
+                return false;
+            int cp = str.codePointAt(j);
+            if (cp == 0xFFFD || Character.isSurrogate((char) cp))
+                // Might be decoded from a malformed sequence
+                return decode(s, start, end, true).equals(str);
+            int len = cp < 0x80 ? 1 : cp < 0x800 ? 2 : cp < 0x10000 ? 3 : 4;
+            if (i + len * 3 > end)
+                return false;
+            for (int k = len - 1; k >= 0; k--) {
+                int b = k == len - 1 ? UTF8_LEADING[len] | (cp >> (6 * k)) :
+                        0x80 | ((cp >> (6 * k)) & 0x3F);
+                if (s.charAt(i) != '%' || decodeOctet(s, i, end) != b)
+                    return false;
+                i += 3;
             }
-            bb.flip();
-            dec.reset();
-            dec.decode(bb, cb, true);
-            dec.flush(cb);
+            j += Character.charCount(cp);
         }
+        return j == n;
+    }
 
-        return cb == null ? s : cb.flip().toString();
+    // Counts the octets decoded from the chars in [start, end),
+    // checking each escape sequence
+    private static int decodedLength(CharSequence s, int start, int end) {
+        int count = 0;
+        int i = start;
+        while (i < end) {
+            char c = s.charAt(i);
+            if (c == '%') {
+                decodeOctet(s, i, end);
+                i += 3;
+                count++;
+            } else if (c < 0x80) {
+                i++;
+                count++;
+            } else {
+                int cp = codePointAt(s, i, end);
+                count += cp < 0x800 ? 2 : cp < 0x10000 ? 3 : 4;
+                i += Character.charCount(cp);
+            }
+        }
+        return count;
     }
 
-    // -- Scanning and checking --
+    // Gets the code point at the given index, with an unpaired surrogate as U+FFFD
+    private static int codePointAt(CharSequence s, int i, int end) {
+        char c = s.charAt(i);
+        if (Character.isHighSurrogate(c) && i + 1 < end) {
+            char d = s.charAt(i + 1);
+            if (Character.isLowSurrogate(d))
+                return Character.toCodePoint(c, d);
+        }
+        return Character.isSurrogate(c) ? 0xFFFD : c;
+    }
 
-    static void fail(String input, String reason, int p) {
-        throw new UriSyntaxException(input, reason, p);
+    // Puts a non-ASCII code point in UTF-8 at the given index,
+    // and returns the index after it
+    private static int putUtf8(byte[] b, int i, int cp) {
+        if (cp < 0x800) {
+            b[i++] = (byte) (0xC0 | (cp >> 6));
+        } else {
+            if (cp < 0x10000) {
+                b[i++] = (byte) (0xE0 | (cp >> 12));
+            } else {
+                b[i++] = (byte) (0xF0 | (cp >> 18));
+                b[i++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+            }
+            b[i++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+        }
+        b[i++] = (byte) (0x80 | (cp & 0x3F));
+        return i;
     }
 
-    // Scans a potential escape sequence, starting at the given position,
-    // with the given first char (i.e., charAt(start) == c).
-    private static boolean scanPctEncoded(String input,
-                                          int start, int n, char first) {
-        if (first == '%') {
-            // Process escape pair
-            if ((start + 3 <= n)
-                    && match(input.charAt(start + 1), L_HEXDIG, H_HEXDIG)
-                    && match(input.charAt(start + 2), L_HEXDIG, H_HEXDIG)) {
-                return true;
+    // Decodes the chars in [start, n) into the given array from the given
+    // index, and returns the index after the last char decoded.
+    //
+    // Each run of escape sequences is decoded in UTF-8 as CharsetDecoder
+    // does with REPLACE: a malformed sequence is replaced by U+FFFD as
+    // its longest valid prefix, or as the three octets of an encoded
+    // surrogate, or as what is left incomplete at the end of the run.
+    private static int decode(CharSequence s, int start, int n,
+                              char[] out, int len, boolean decodePlusAsSpace) {
+        int i = start;
+        while (i < n) {
+            char c = s.charAt(i);
+            if (c != '%') {
+                out[len++] = decodePlusAsSpace && c == '+' ? ' ' : c;
+                i++;
+                continue;
+            }
+            int need = 0; // continuation octets still needed
+            int cp = 0;
+            int lower = 0x80; // bounds of the next continuation octet
+            int upper = 0xBF;
+            while (i < n && s.charAt(i) == '%') {
+                int b = decodeOctet(s, i, n);
+                if (need == 0) {
+                    i += 3;
+                    if (b < 0x80) {
+                        out[len++] = (char) b;
+                    } else if (b >= 0xC2 && b <= 0xDF) {
+                        need = 1;
+                        cp = b & 0x1F;
+                    } else if (b >= 0xE0 && b <= 0xEF) {
+                        need = 2;
+                        cp = b & 0x0F;
+                        if (b == 0xE0)
+                            lower = 0xA0;
+                    } else if (b >= 0xF0 && b <= 0xF4) {
+                        need = 3;
+                        cp = b & 0x07;
+                        if (b == 0xF0) {
+                            lower = 0x90;
+                        } else if (b == 0xF4) {
+                            upper = 0x8F;
+                        }
+                    } else {
+                        out[len++] = '\uFFFD';
+                    }
+                } else if (b < lower || b > upper) {
+                    // Replaces the prefix, and goes on with this octet
+                    out[len++] = '\uFFFD';
+                    need = 0;
+                    lower = 0x80;
+                    upper = 0xBF;
+                } else {
+                    i += 3;
+                    lower = 0x80;
+                    upper = 0xBF;
+                    cp = (cp << 6) | (b & 0x3F);
+                    if (--need == 0) {
+                        if (cp >= 0x10000) {
+                            out[len++] = Character.highSurrogate(cp);
+                            out[len++] = Character.lowSurrogate(cp);
+                        } else if (Character.isSurrogate((char) cp)) {
+                            out[len++] = '\uFFFD';
+                        } else {
+                            out[len++] = (char) cp;
+                        }
+                    }
+                }
             }
-            fail(input, "Malformed percent-encoded octet", start);
+            if (need != 0)
+                out[len++] = '\uFFFD';
         }
-        return false;
+        return len;
+    }
+
+    // -- Scanning and checking --
+
+    static void fail(CharSequence input, String reason, int p) {
+        throw new UriSyntaxException(input.toString(), reason, p);
+    }
+
+    // Returned by a checking method if a failure is handled without throwing.
+    static final int FAILED = Integer.MIN_VALUE;
+
+    private static int fail(CharSequence input, String reason, int p,
+                            ObjIntConsumer<String> handler) {
+        if (handler == null)
+            fail(input, reason, p);
+        handler.accept(reason, p);
+        return FAILED;
+    }
+
+    // Tells whether a valid escape sequence starts at the given position,
+    // where charAt(start) == '%'.
+    static boolean isPctEncoded(CharSequence input, int start, int n) {
+        return (start + 3 <= n)
+                && CharClass.HEXDIG.matches(input.charAt(start + 1))
+                && CharClass.HEXDIG.matches(input.charAt(start + 2));
     }
 
     // Scans the given char, starting at the given position.
-    static int scan(String input, int start, int n, char ch) {
+    static int scan(CharSequence input, int start, int n, char ch) {
         int p = start;
         while (p < n) {
             char cur = input.charAt(p);
@@ -323,58 +825,83 @@ public final class CharUtils {
         return p;
     }
 
-    // Scans chars that match the given mask pair.
-    private static int scan(String input,
-                            int start, int n, long lowMask, long highMask) {
+    // Scans chars that belong to the given class, or escape sequences
+    // if allowed, and returns the position of the first char that does not.
+    static int scan(CharSequence input, int start, int n, CharClass cc) {
         int p = start;
-        boolean allowPctEncoded = (lowMask & L_PCT_ENCODED) != 0;
+        boolean allowPctEncoded = cc.allowsPctEncoded();
+        boolean[] table = cc.table;
         while (p < n) {
-            char c = input.charAt(p);
-            if (match(c, lowMask, highMask)) {
-                p++;
-                continue;
+            // Checks four chars at a time, with a single branch for
+            // non-ASCII chars and another for chars not matching.
+            if (p + 4 <= n) {
+                char c0 = input.charAt(p);
+                char c1 = input.charAt(p + 1);
+                char c2 = input.charAt(p + 2);
+                char c3 = input.charAt(p + 3);
+                if ((c0 | c1 | c2 | c3) < 0x80
+                        && (table[c0] & table[c1] & table[c2] & table[c3])) {
+                    p += 4;
+                    continue;
+                }
             }
-            if (allowPctEncoded) {
-                boolean enc = scanPctEncoded(input, p, n, c);
-                if (enc) {
+            // Falls back to checking the chars one by one,
+            // at least until past the four chars
+            int end = Math.min(p + 4, n);
+            while (p < end) {
+                char c = input.charAt(p);
+                if (c < 0x80 && table[c]) {
+                    p++;
+                } else if (allowPctEncoded && c == '%'
+                        && isPctEncoded(input, p, n)) {
                     p += 3;
-                    continue;
+                } else {
+                    return p;
                 }
             }
-            break;
         }
         return p;
     }
 
-    // Checks that each of the chars in [start, end) matches the given mask.
-    static void checkChars(String input, int start, int end,
-                           long lowMask, long highMask, String what) {
-        int p = scan(input, start, end, lowMask, highMask);
+    // Fails at the char at position p, at which a scan with the given class stopped.
+    static void failIllegal(CharSequence input, int p, CharClass cc, String what) {
+        if (cc.allowsPctEncoded() && input.charAt(p) == '%')
+            fail(input, "Malformed percent-encoded octet", p);
+        fail(input, "Illegal character in " + what, p);
+    }
+
+    // Checks that each of the chars in [start, end) belongs to the given class.
+    static void checkChars(CharSequence input, int start, int end,
+                           CharClass cc, String what) {
+        int p = scan(input, start, end, cc);
         if (p < end)
-            fail(input, "Illegal character in " + what, p);
+            failIllegal(input, p, cc, what);
     }
 
-    // Checks that each of the chars in the given string matches the given mask.
-    static void checkChars(String input,
-                           long lowMask, long highMask, String what) {
-        checkChars(input, 0, input.length(), lowMask, highMask, what);
+    // Checks that each of the chars in the given string belongs to the given class.
+    static void checkChars(String input, CharClass cc, String what) {
+        checkChars(input, 0, input.length(), cc, what);
     }
 
-    // Checks that the char at position p matches the given mask.
-    static void checkChar(String input, int p,
-                          long lowMask, long highMask, String what) {
-        if (!match(input.charAt(p), lowMask, highMask))
+    // Checks that the char at position p belongs to the given class.
+    static void checkChar(CharSequence input, int p, CharClass cc, String what) {
+        if (!cc.matches(input.charAt(p)))
             fail(input, "Illegal character in " + what, p);
     }
 
     // Checks that the given host is compliant with DNS.
     // Reference: https://en.wikipedia.org/wiki/Domain_Name_System#Domain_name_syntax,_internationalization
     static void checkHostname(String host) {
+        if (scanHostname(host) >= 0)
+            failHostname(host);
+    }
+
+    // Checks that the given host is compliant with DNS as above, if it is
+    // in ASCII, or returns the index of the first non-ASCII char, or -1 if none.
+    static int scanHostname(String host) {
         int len = host.length();
         if (len == 0)
             throw new IllegalArgumentException("Empty host");
-        if (len > 253)
-            throw new IllegalArgumentException("Host length > 253 for DNS");
         int lastLabelStart = 0;
         boolean lastHyphen = false;
         boolean digitOnly = true;
@@ -383,7 +910,8 @@ public final class CharUtils {
             if (i == len) {
                 if (lastHyphen || digitOnly
                         || i - lastLabelStart > 63) break;
-                return;
+                if (len > 253) break;
+                return -1;
             } else if ((c = host.charAt(i)) == '.') {
                 if (i == len - 1) continue;
                 if (lastLabelStart == i || lastHyphen
@@ -398,21 +926,43 @@ public final class CharUtils {
             } else {
                 if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z')) {
                     digitOnly = false;
+                } else if (c >= 0x80) {
+                    return i;
                 } else if (c < '0' || c > '9') {
                     break;
                 }
                 lastHyphen = false;
             }
         }
+        // Not compliant as it is, but might be after conversion
+        for (int i = 0; i < len; i++) {
+            if (host.charAt(i) >= 0x80)
+                return i;
+        }
+        failHostname(host);
+        return -1; // never reached
+    }
+
+    private static void failHostname(String host) {
+        if (host.length() > 253)
+            throw new IllegalArgumentException("Host length > 253 for DNS");
         throw new IllegalArgumentException("Host syntax not compliant with DNS: " + host);
     }
 
     // Checks that the given substring contains a legal IPv6 address,
     // and returns the first occurrence index of "%" or -1.
     // References: Section 3.2.2, RFC 3986; Section 2, RFC 6874
-    static int checkIpv6Address(String s, int start, int n, boolean encoded) {
+    static int checkIpv6Address(CharSequence s, int start, int n, boolean encoded) {
+        return checkIpv6Address(s, start, n, encoded, null);
+    }
+
+    // Same as above, but a failure is reported to the given handler
+    // with the reason and index, if the handler is not null.
+    // Returns FAILED if the handler returns.
+    static int checkIpv6Address(CharSequence s, int start, int n, boolean encoded,
+                                ObjIntConsumer<String> handler) {
         int len = n - start;
-        if (len < 2) fail(s, "Illegal IPv6 address", start);
+        if (len < 2) return fail(s, "Illegal IPv6 address", start, handler);
 
         int pct = scan(s, start, n, '%');
         if (pct != n) {
@@ -421,21 +971,25 @@ public final class CharUtils {
                 if (pct + 2 >= n
                         || s.charAt(pct + 1) != '2'
                         || s.charAt(pct + 2) != '5') {
-                    fail(s, "Expected %25", pct);
+                    return fail(s, "Expected %25", pct, handler);
                 }
                 zoneIdStart = pct + 3;
-                if (scan(s, zoneIdStart, n, L_ZONE_ID, H_ZONE_ID) < n)
-                    fail(s, "Illegal character in zone ID", zoneIdStart);
+                int p = scan(s, zoneIdStart, n, CharClass.ZONE_ID);
+                if (p < n) {
+                    if (s.charAt(p) == '%')
+                        return fail(s, "Malformed percent-encoded octet", p, handler);
+                    return fail(s, "Illegal character in zone ID", zoneIdStart, handler);
+                }
             } else zoneIdStart = pct + 1;
             if (zoneIdStart == n)
-                fail(s, "Expected zone ID", zoneIdStart);
+                return fail(s, "Expected zone ID", zoneIdStart, handler);
 
             n = pct;
         } else pct = -1;
 
         len = n - start;
         // longest: 0000:0000:0000:0000:0000:0000:255.255.255.255
-        if (len < 2 || len > 45) fail(s, "Illegal IPv6 address", start);
+        if (len < 2 || len > 45) return fail(s, "Illegal IPv6 address", start, handler);
 
         int minSeqCount = 0;
         int lastColon = start - 1;
@@ -447,40 +1001,40 @@ public final class CharUtils {
                 if (lastColon != n - 1) {
                     minSeqCount++;
                 } else if (!compressed) { // ending with single colon
-                    fail(s, "Malformed IPv6 address", start);
+                    return fail(s, "Malformed IPv6 address", start, handler);
                 }
             } else if ((c = s.charAt(i)) == ':') {
                 if (i == lastColon + 1) {
                     if (compressed)
-                        fail(s, "Multiple compressions in IPv6 address", lastColon);
+                        return fail(s, "Multiple compressions in IPv6 address", lastColon, handler);
                     if (i == start) {
                         if (s.charAt(++i) != ':')
-                            fail(s, "Malformed IPv6 address", start);
+                            return fail(s, "Malformed IPv6 address", start, handler);
                     }
                     compressed = true;
                 } else {
                     // hex seq len > 4
                     if (i - lastColon > 5)
-                        fail(s, "Hex sequence too long in IPv6 address", lastColon + 1);
+                        return fail(s, "Hex sequence too long in IPv6 address", lastColon + 1, handler);
                 }
                 minSeqCount++;
                 lastColon = i;
             } else if (c == '.') {
                 if (!isIpv4Address(s, lastColon + 1, n))
-                    fail(s, "Illegal IPv4 address", lastColon + 1);
+                    return fail(s, "Illegal IPv4 address", lastColon + 1, handler);
                 minSeqCount += 2;
                 break;
-            } else if (!match(c, L_HEXDIG, H_HEXDIG)) {
-                fail(s, "Illegal character in IPv6 address", i);
+            } else if (!CharClass.HEXDIG.matches(c)) {
+                return fail(s, "Illegal character in IPv6 address", i, handler);
             }
         }
         if (minSeqCount > 8)
-            fail(s, "IPv6 address too long", start);
+            return fail(s, "IPv6 address too long", start, handler);
         return pct;
     }
 
     // IPv4address = dec-octet "." dec-octet "." dec-octet "." dec-octet
-    static boolean isIpv4Address(String s, int start, int n) {
+    static boolean isIpv4Address(CharSequence s, int start, int n) {
         int len = n - start;
         // shortest: 0.0.0.0
         // longest: 255.255.255.255
@@ -509,7 +1063,7 @@ public final class CharUtils {
     //             / "1" 2DIGIT            ; 100-199
     //             / "2" %x30-34 DIGIT     ; 200-249
     //             / "25" %x30-35          ; 250-255
-    private static boolean isDecOctet(String s, int start, int n) {
+    private static boolean isDecOctet(CharSequence s, int start, int n) {
         int len = n - start;
         if (len == 0 || len > 3) return false;
         if (len == 1) return true;
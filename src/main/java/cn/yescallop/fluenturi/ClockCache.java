@@ -0,0 +1,118 @@
+package cn.yescallop.fluenturi;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A bounded cache safe for concurrent use, evicting entries
+ * with the CLOCK (second-chance) algorithm.
+ * <p>
+ * Lookups take no lock; insertions are serialized on the clock ring.
+ *
+ * @author Scallop Ye
+ */
+final class ClockCache<K, V> {
+
+    private final int capacity;
+    private final ConcurrentHashMap<K, Node<K, V>> map;
+    // Guarded by itself, as are hand and size
+    private final Node<K, V>[] ring;
+    private int hand;
+    private int size;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    ClockCache(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("Negative capacity");
+        this.capacity = capacity;
+        map = new ConcurrentHashMap<>(capacity);
+        ring = (Node<K, V>[]) new Node<?, ?>[capacity];
+    }
+
+    /**
+     * Gets the value cached for the given key, or loads and caches it.
+     * <p>
+     * The loader is called without any lock held, and a value is not
+     * cached if the loader throws.
+     */
+    V get(K key, Function<? super K, ? extends V> loader) {
+        Node<K, V> n = map.get(key);
+        if (n != null) {
+            // A racy write is fine, as the bit is only a hint for eviction.
+            if (!n.referenced)
+                n.referenced = true;
+            hits.increment();
+            return n.value;
+        }
+        misses.increment();
+        V value = loader.apply(key);
+        if (capacity != 0)
+            put(key, value);
+        return value;
+    }
+
+    private void put(K key, V value) {
+        synchronized (ring) {
+            if (map.containsKey(key))
+                return;
+            int i;
+            if (size < capacity) {
+                i = size++;
+            } else {
+                // Gives each referenced entry a second chance
+                Node<K, V> victim;
+                while ((victim = ring[hand]).referenced) {
+                    victim.referenced = false;
+                    hand = (hand + 1) % capacity;
+                }
+                map.remove(victim.key);
+                i = hand;
+                hand = (hand + 1) % capacity;
+            }
+            Node<K, V> n = new Node<>(key, value);
+            ring[i] = n;
+            map.put(key, n);
+        }
+    }
+
+    void clear() {
+        synchronized (ring) {
+            map.clear();
+            for (int i = 0; i < size; i++)
+                ring[i] = null;
+            size = 0;
+            hand = 0;
+        }
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    int size() {
+        return map.size();
+    }
+
+    long hitCount() {
+        return hits.sum();
+    }
+
+    long missCount() {
+        return misses.sum();
+    }
+
+    private static final class Node<K, V> {
+        final K key;
+        final V value;
+        boolean referenced;
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package cn.yescallop.fluenturi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * Streaming decoder of form bodies in application/x-www-form-urlencoded,
+ * which decodes the bytes as they are fed in chunks, and passes each
+ * name and value to a consumer as soon as the parameter is complete.
+ * <p>
+ * Parameters are split as in {@link Uri#queryParameters()}, and each
+ * name or value is decoded in UTF-8 as in
+ * {@link CharUtils#decode(String, boolean)} with plus as space,
+ * so that a body is decoded the same as a query of its chars.
+ * A parameter without "=" has a null value.
+ * <p>
+ * Memory is bounded by twice the maximum length of a field, that is,
+ * the number of bytes of a name or value before it is decoded,
+ * as a parameter is split at its last "=" only when complete.
+ * A decoder is not safe for concurrent use, nor for further use
+ * after throwing.
+ *
+ * @author Scallop Ye
+ * @see QueryVisitor
+ */
+public final class FormDecoder {
+
+    private static final int BUFFER_SIZE = 8192;
+    // Some VMs reserve header words in an array
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    private final int maxFieldLength;
+    private final BiConsumer<String, String> consumer;
+
+    // Chars decoded of the current parameter, which is split at
+    // the last "=" only when complete
+    private char[] buf = new char[64];
+    private int len;
+    // Bytes of the current parameter, and whether it has any
+    private int paramLength;
+    private boolean inParam;
+    // Indexes of the last "=" in the bytes and in the chars, or -1 if none
+    private int equalsIndex = -1;
+    private int equalsChar = -1;
+
+    // State of an escape sequence: 0 if none, 1 after "%",
+    // 2 after the first hex digit, whose value is in hex
+    private int escape;
+    private int hex;
+
+    // State of UTF-8 decoding, as in CharUtils.decode, of the current run
+    // of either escaped or unescaped bytes, which are decoded separately
+    private boolean escapedRun;
+    private int need;
+    private int cp;
+    private int lower = 0x80;
+    private int upper = 0xBF;
+
+    /**
+     * Creates a form decoder.
+     *
+     * @param maxFieldLength the maximum number of bytes of a name or value
+     * @param consumer the consumer of the decoded name and value of each parameter
+     * @throws IllegalArgumentException if maxFieldLength is not positive
+     */
+    public FormDecoder(int maxFieldLength, BiConsumer<String, String> consumer) {
+        if (maxFieldLength <= 0)
+            throw new IllegalArgumentException("Non-positive maximum field length");
+        this.maxFieldLength = maxFieldLength;
+        this.consumer = consumer;
+    }
+
+    /**
+     * Decodes a chunk of the body in the given range of an array.
+     *
+     * @param b an array
+     * @param off the index of the first byte
+     * @param n the number of bytes
+     * @throws IllegalArgumentException if there is any malformed percent-encoded octet,
+     * or if a field is longer than the maximum
+     * @throws IndexOutOfBoundsException if off or n is out of bounds
+     */
+    public void decode(byte[] b, int off, int n) {
+        if (off < 0 || n < 0 || n > b.length - off)
+            throw new IndexOutOfBoundsException();
+        for (int i = off; i < off + n; i++)
+            next(b[i] & 0xFF);
+    }
+
+    /**
+     * Decodes a chunk of the body between the position and the limit
+     * of the given buffer, to which the position is then advanced.
+     *
+     * @param src a buffer
+     * @throws IllegalArgumentException if there is any malformed percent-encoded octet,
+     * or if a field is longer than the maximum
+     */
+    public void decode(ByteBuffer src) {
+        if (src.hasArray()) {
+            int pos = src.position();
+            decode(src.array(), src.arrayOffset() + pos, src.remaining());
+            src.position(src.limit());
+            return;
+        }
+        while (src.hasRemaining())
+            next(src.get() & 0xFF);
+    }
+
+    /**
+     * Ends the body, passing the last parameter to the consumer.
+     * The decoder may then be used for another body.
+     *
+     * @throws IllegalArgumentException if the body ends within a percent-encoded octet
+     */
+    public void finish() {
+        if (escape != 0)
+            throw new IllegalArgumentException("Malformed percent-encoded octet");
+        endParam();
+    }
+
+    /**
+     * Decodes the body read from the given stream until its end,
+     * and then {@link #finish() finishes} it. The stream is not closed.
+     *
+     * @param in an input stream
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalArgumentException if there is any malformed percent-encoded octet,
+     * or if a field is longer than the maximum
+     */
+    public void decode(InputStream in) throws IOException {
+        byte[] b = new byte[BUFFER_SIZE];
+        int n;
+        while ((n = in.read(b)) >= 0)
+            decode(b, 0, n);
+        finish();
+    }
+
+    /**
+     * Decodes the body read from the given channel until its end,
+     * and then {@link #finish() finishes} it. The channel is not closed.
+     *
+     * @param ch a readable channel, which must be in blocking mode
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalArgumentException if there is any malformed percent-encoded octet,
+     * or if a field is longer than the maximum
+     */
+    public void decode(ReadableByteChannel ch) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(BUFFER_SIZE);
+        while (ch.read(b) >= 0) {
+            b.flip();
+            decode(b);
+            b.clear();
+        }
+        finish();
+    }
+
+    private void next(int b) {
+        if (escape != 0) {
+            int d = hexValue(b);
+            if (escape == 1) {
+                hex = d;
+                escape = 2;
+            } else {
+                escape = 0;
+                octet((hex << 4) | d, true);
+            }
+            return;
+        }
+        if (b == '&') {
+            endParam();
+            return;
+        }
+        inParam = true;
+        if (b == '=') {
+            // What is before belongs to the name
+            if (paramLength > maxFieldLength)
+                throw new IllegalArgumentException("Form field too long");
+            endRun();
+            escapedRun = false;
+            equalsIndex = paramLength++;
+            equalsChar = len;
+            put('=');
+            return;
+        }
+        // Counts the hex digits of an escape sequence as well
+        paramLength += b == '%' ? 3 : 1;
+        if (paramLength - (equalsIndex + 1) > maxFieldLength)
+            throw new IllegalArgumentException("Form field too long");
+        if (b == '%') {
+            escape = 1;
+        } else {
+            octet(b == '+' ? ' ' : b, false);
+        }
+    }
+
+    private static int hexValue(int c) {
+        if ((c >= '0') && (c <= '9'))
+            return c - '0';
+        if ((c >= 'a') && (c <= 'f'))
+            return c - 'a' + 10;
+        if ((c >= 'A') && (c <= 'F'))
+            return c - 'A' + 10;
+        throw new IllegalArgumentException("Malformed percent-encoded octet");
+    }
+
+    // Decodes an octet, in the same way as in CharUtils.decode
+    private void octet(int b, boolean escaped) {
+        if (escaped != escapedRun) {
+            endRun();
+            escapedRun = escaped;
+        }
+        if (need != 0) {
+            if (b >= lower && b <= upper) {
+                lower = 0x80;
+                upper = 0xBF;
+                cp = (cp << 6) | (b & 0x3F);
+                if (--need == 0) {
+                    if (cp >= 0x10000) {
+                        put(Character.highSurrogate(cp));
+                        put(Character.lowSurrogate(cp));
+                    } else if (Character.isSurrogate((char) cp)) {
+                        put('\uFFFD');
+                    } else {
+                        put((char) cp);
+                    }
+                }
+                return;
+            }
+            // Replaces the prefix, and goes on with this octet
+            endRun();
+        }
+        if (b < 0x80) {
+            put((char) b);
+        } else if (b >= 0xC2 && b <= 0xDF) {
+            need = 1;
+            cp = b & 0x1F;
+        } else if (b >= 0xE0 && b <= 0xEF) {
+            need = 2;
+            cp = b & 0x0F;
+            if (b == 0xE0)
+                lower = 0xA0;
+        } else if (b >= 0xF0 && b <= 0xF4) {
+            need = 3;
+            cp = b & 0x07;
+            if (b == 0xF0) {
+                lower = 0x90;
+            } else if (b == 0xF4) {
+                upper = 0x8F;
+            }
+        } else {
+            put('\uFFFD');
+        }
+    }
+
+    // Replaces an incomplete sequence at the end of a run
+    private void endRun() {
+        if (need != 0) {
+            put('\uFFFD');
+            need = 0;
+            lower = 0x80;
+            upper = 0xBF;
+        }
+    }
+
+    private void put(char c) {
+        // No more chars are decoded than there are bytes in a parameter,
+        // which is no longer than a name, "=" and a value. The capacity
+        // is computed in long, as twice the maximum may overflow an int.
+        if (len == buf.length) {
+            if (len == MAX_ARRAY_SIZE)
+                throw new IllegalArgumentException("Form field too long");
+            long cap = Math.min(len * 2L, maxFieldLength * 2L + 1);
+            buf = Arrays.copyOf(buf, (int) Math.min(cap, MAX_ARRAY_SIZE));
+        }
+        buf[len++] = c;
+    }
+
+    private void endParam() {
+        if (inParam) { // skip empty params
+            endRun();
+            int eq = equalsChar;
+            if (eq >= 0) {
+                consumer.accept(new String(buf, 0, eq), new String(buf, eq + 1, len - eq - 1));
+            } else {
+                consumer.accept(new String(buf, 0, len), null);
+            }
+        }
+        len = 0;
+        paramLength = 0;
+        equalsIndex = -1;
+        equalsChar = -1;
+        inParam = false;
+        escapedRun = false;
+    }
+}
@@ -0,0 +1,109 @@
+package cn.yescallop.fluenturi;
+
+/**
+ * A bounded cache of host conversions between Unicode and IDNA ASCII
+ * forms, safe to share across threads.
+ * <p>
+ * A host that needs no conversion is returned at once without being cached.
+ * <p>
+ * The {@link #global() global} cache is used when building a Uri with
+ * {@link Uri.HostEncodingOption#DNS_COMPLIANT} and when decoding a host
+ * in {@link Uri#host()}. Its capacity for each direction of conversion
+ * is set by the system property
+ * {@code cn.yescallop.fluenturi.hostCacheCapacity}, 4096 by default,
+ * where 0 disables caching.
+ *
+ * @author Scallop Ye
+ * @see <a href="https://www.ietf.org/rfc/rfc3490.html">RFC 3490: IDNA</a>
+ */
+public final class HostCache {
+
+    private static final HostCache GLOBAL = new HostCache(
+            Integer.getInteger("cn.yescallop.fluenturi.hostCacheCapacity", 4096));
+
+    private final ClockCache<String, String> ascii;
+    private final ClockCache<String, String> unicode;
+
+    /**
+     * Creates a host cache.
+     *
+     * @param capacity the maximum number of hosts cached for each direction of conversion
+     * @throws IllegalArgumentException if capacity is negative
+     */
+    public HostCache(int capacity) {
+        ascii = new ClockCache<>(capacity);
+        unicode = new ClockCache<>(capacity);
+    }
+
+    /**
+     * Gets the global host cache.
+     */
+    public static HostCache global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Converts a host from Unicode to ASCII with IDNA, allowing unassigned
+     * code points, and checks that the result is compliant with DNS.
+     *
+     * @param host a host
+     * @return the host in ASCII
+     * @throws IllegalArgumentException if the host could not be converted
+     * or is not compliant with DNS
+     */
+    public String toAscii(String host) {
+        // An ASCII host is checked in a single pass, and not converted.
+        if (CharUtils.scanHostname(host) < 0)
+            return host;
+        return ascii.get(host, Idna::toAscii);
+    }
+
+    /**
+     * Converts a host from ASCII to Unicode with IDNA, allowing unassigned
+     * code points, leaving as it is any label that could not be converted.
+     *
+     * @param host a host
+     * @return the host in Unicode
+     */
+    public String toUnicode(String host) {
+        if (!Idna.needsToUnicode(host))
+            return host;
+        return unicode.get(host, Idna::toUnicode);
+    }
+
+    /**
+     * Gets the maximum number of hosts cached for each direction of conversion.
+     */
+    public int capacity() {
+        return ascii.capacity();
+    }
+
+    /**
+     * Gets the number of hosts currently cached.
+     */
+    public int size() {
+        return ascii.size() + unicode.size();
+    }
+
+    /**
+     * Gets the number of conversions found in the cache.
+     */
+    public long hitCount() {
+        return ascii.hitCount() + unicode.hitCount();
+    }
+
+    /**
+     * Gets the number of conversions not found in the cache.
+     */
+    public long missCount() {
+        return ascii.missCount() + unicode.missCount();
+    }
+
+    /**
+     * Removes all of the cached hosts. The counters are not reset.
+     */
+    public void clear() {
+        ascii.clear();
+        unicode.clear();
+    }
+}
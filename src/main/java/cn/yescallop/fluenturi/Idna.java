@@ -0,0 +1,224 @@
+package cn.yescallop.fluenturi;
+
+import java.net.IDN;
+
+import static cn.yescallop.fluenturi.CharUtils.*;
+
+/**
+ * Conversions of hosts between Unicode and IDNA ASCII forms,
+ * with a fast path for hosts that need no conversion.
+ * <p>
+ * Labels are converted as in IDNA2003 with unassigned code points allowed,
+ * the same as {@link IDN}. A label in ASCII is left as it is, and any other
+ * label is converted by {@link IDN}, which implements nameprep with
+ * the Unicode 3.2 tables. Punycode is decoded here, so that a label
+ * with the ACE prefix is converted to Unicode without the JDK unless
+ * it turns out to be valid.
+ *
+ * @author Scallop Ye
+ * @see <a href="https://www.ietf.org/rfc/rfc3490.html">RFC 3490</a>
+ * @see <a href="https://www.ietf.org/rfc/rfc3492.html">RFC 3492: Punycode</a>
+ */
+final class Idna {
+
+    private static final String ACE_PREFIX = "xn--";
+
+    private Idna() {
+        // no instance
+    }
+
+    /**
+     * Converts a host from Unicode to ASCII, and checks that
+     * the result is compliant with DNS.
+     * <p>
+     * A host in ASCII is checked in a single pass and returned as it is.
+     *
+     * @throws IllegalArgumentException if the host could not be converted
+     * or is not compliant with DNS
+     */
+    static String toAscii(String host) {
+        if (scanHostname(host) < 0)
+            return host;
+
+        int len = host.length();
+        StringBuilder sb = new StringBuilder(len + 16);
+        int labelStart = 0;
+        for (int i = 0; i <= len; i++) {
+            if (i == len || isDot(host.charAt(i))) {
+                labelToAscii(host.substring(labelStart, i), sb);
+                if (i < len)
+                    sb.append('.');
+                labelStart = i + 1;
+            }
+        }
+        String r = sb.toString();
+        checkHostname(r);
+        return r;
+    }
+
+    /**
+     * Converts a host from ASCII to Unicode.
+     * <p>
+     * A label that could not be converted is left as it is,
+     * and so is a host without any label with the ACE prefix.
+     */
+    static String toUnicode(String host) {
+        if (!needsToUnicode(host))
+            return host;
+
+        int len = host.length();
+        StringBuilder sb = new StringBuilder(len);
+        int labelStart = 0;
+        for (int i = 0; i <= len; i++) {
+            if (i == len || isDot(host.charAt(i))) {
+                sb.append(labelToUnicode(host.substring(labelStart, i)));
+                if (i < len)
+                    sb.append('.');
+                labelStart = i + 1;
+            }
+        }
+        return sb.toString();
+    }
+
+    // Tells whether the given host has any non-ASCII char
+    // or any label with the ACE prefix.
+    static boolean needsToUnicode(String host) {
+        int len = host.length();
+        for (int i = 0; i < len; i++) {
+            char c = host.charAt(i);
+            if (c >= 0x80 || (i == 0 || host.charAt(i - 1) == '.')
+                    && host.regionMatches(true, i, ACE_PREFIX, 0, 4))
+                return true;
+        }
+        return false;
+    }
+
+    // Label separators (Section 3.1, RFC 3490)
+    private static boolean isDot(char c) {
+        return c == '.' || c == '\u3002' || c == '\uFF0E' || c == '\uFF61';
+    }
+
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80)
+                return false;
+        }
+        return true;
+    }
+
+    // ToASCII (Section 4.1, RFC 3490), without the length check
+    // which is done on the whole host
+    private static void labelToAscii(String label, StringBuilder out) {
+        if (isAscii(label)) {
+            out.append(label);
+            return;
+        }
+        out.append(IDN.toASCII(label, IDN.ALLOW_UNASSIGNED));
+    }
+
+    // ToUnicode (Section 4.2, RFC 3490), which never fails
+    private static String labelToUnicode(String label) {
+        if (label.length() <= 4 || !label.regionMatches(true, 0, ACE_PREFIX, 0, 4))
+            return label;
+        String decoded = decodePunycode(label, 4);
+        if (decoded == null)
+            return label;
+        StringBuilder sb = new StringBuilder(label.length());
+        try {
+            labelToAscii(decoded, sb);
+        } catch (IllegalArgumentException e) {
+            return label;
+        }
+        return sb.toString().equalsIgnoreCase(label) ? decoded : label;
+    }
+
+    // Punycode parameters (Section 5, RFC 3492)
+    private static final int BASE = 36;
+    private static final int TMIN = 1;
+    private static final int TMAX = 26;
+    private static final int SKEW = 38;
+    private static final int DAMP = 700;
+    private static final int INITIAL_BIAS = 72;
+    private static final int INITIAL_N = 0x80;
+
+    // Decodes the Punycode from the given index of a string (Section 6.2, RFC 3492),
+    // returning null if failed.
+    static String decodePunycode(String s, int start) {
+        int len = s.length();
+        int b = s.lastIndexOf('-');
+        if (b < start)
+            b = start;
+        int[] out = new int[len - start];
+        int size = 0;
+        for (int j = start; j < b; j++) {
+            char c = s.charAt(j);
+            if (c >= 0x80)
+                return null;
+            out[size++] = c;
+        }
+
+        int n = INITIAL_N;
+        int i = 0;
+        int bias = INITIAL_BIAS;
+        for (int in = b > start ? b + 1 : start; in < len; ) {
+            int oldi = i;
+            int w = 1;
+            for (int k = BASE; ; k += BASE) {
+                if (in >= len)
+                    return null;
+                int digit = decodeDigit(s.charAt(in++));
+                if (digit < 0 || digit > (Integer.MAX_VALUE - i) / w)
+                    return null;
+                i += digit * w;
+                int t = threshold(k, bias);
+                if (digit < t)
+                    break;
+                if (w > Integer.MAX_VALUE / (BASE - t))
+                    return null;
+                w *= BASE - t;
+            }
+            bias = adapt(i - oldi, size + 1, oldi == 0);
+            if (i / (size + 1) > Integer.MAX_VALUE - n)
+                return null;
+            n += i / (size + 1);
+            i %= size + 1;
+            if (n > Character.MAX_CODE_POINT
+                    || (n >= Character.MIN_SURROGATE && n <= Character.MAX_SURROGATE))
+                return null;
+            System.arraycopy(out, i, out, i + 1, size - i);
+            out[i++] = n;
+            size++;
+        }
+        return new String(out, 0, size);
+    }
+
+    private static int threshold(int k, int bias) {
+        if (k <= bias)
+            return TMIN;
+        if (k >= bias + TMAX)
+            return TMAX;
+        return k - bias;
+    }
+
+    // Bias adaptation (Section 6.1, RFC 3492)
+    private static int adapt(int delta, int numPoints, boolean first) {
+        delta = first ? delta / DAMP : delta / 2;
+        delta += delta / numPoints;
+        int k = 0;
+        while (delta > ((BASE - TMIN) * TMAX) / 2) {
+            delta /= BASE - TMIN;
+            k += BASE;
+        }
+        return k + (BASE - TMIN + 1) * delta / (delta + SKEW);
+    }
+
+    private static int decodeDigit(char c) {
+        if (c >= '0' && c <= '9')
+            return c - '0' + 26;
+        if (c >= 'a' && c <= 'z')
+            return c - 'a';
+        if (c >= 'A' && c <= 'Z')
+            return c - 'A';
+        return -1;
+    }
+}
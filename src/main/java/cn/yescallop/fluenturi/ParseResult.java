@@ -0,0 +1,92 @@
+package cn.yescallop.fluenturi;
+
+/**
+ * Result of parsing a URI-reference without throwing, which holds
+ * either a {@link Uri} or the reason and index of a syntax violation.
+ *
+ * @author Scallop Ye
+ * @see Uri#tryParse(String)
+ */
+public final class ParseResult {
+
+    private final Uri uri;
+    private final String input;
+    private final String reason;
+    private final int index;
+
+    ParseResult(Uri uri) {
+        this.uri = uri;
+        input = null;
+        reason = null;
+        index = -1;
+    }
+
+    ParseResult(String input, String reason, int index) {
+        uri = null;
+        this.input = input;
+        this.reason = reason;
+        this.index = index;
+    }
+
+    /**
+     * Tells whether the input was parsed successfully.
+     */
+    public boolean isSuccess() {
+        return uri != null;
+    }
+
+    /**
+     * Gets the parsed Uri.
+     *
+     * @return the Uri, or null if failed
+     */
+    public Uri uri() {
+        return uri;
+    }
+
+    /**
+     * Gets the parsed Uri, or throws if failed.
+     *
+     * @return the Uri
+     * @throws UriSyntaxException if failed
+     */
+    public Uri orElseThrow() {
+        if (uri == null)
+            throw new UriSyntaxException(input, reason, index);
+        return uri;
+    }
+
+    /**
+     * Gets the input string which failed to be parsed.
+     *
+     * @return the input, or null if succeeded
+     */
+    public String input() {
+        return input;
+    }
+
+    /**
+     * Gets the reason of failure.
+     *
+     * @return the reason, or null if succeeded
+     */
+    public String reason() {
+        return reason;
+    }
+
+    /**
+     * Gets the index at which the failure occurred.
+     *
+     * @return the index, or -1 if succeeded
+     */
+    public int index() {
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        if (uri != null)
+            return uri.toString();
+        return reason + " at index " + index + ": " + input;
+    }
+}
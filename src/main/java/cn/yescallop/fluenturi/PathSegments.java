@@ -0,0 +1,157 @@
+package cn.yescallop.fluenturi;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+import static cn.yescallop.fluenturi.CharUtils.*;
+
+/**
+ * An unmodifiable list of the decoded segments in an encoded path.
+ * <p>
+ * The bounds of the segments are indexed once, and each segment
+ * is decoded only when first got. The encoded segments may be iterated
+ * without decoding through {@link #encodedSegments()}, or with no
+ * allocation at all through the offsets of each segment in
+ * {@link Uri#encodedPath()}. A list is cached on its Uri,
+ * and is safe to share across threads.
+ *
+ * @author Scallop Ye
+ * @see Uri#pathSegments()
+ */
+public final class PathSegments extends AbstractList<String> implements RandomAccess {
+
+    private final CharSequence source;
+    // The start index of the path in the source
+    private final int pathStart;
+    // The start index of each segment, followed by the index
+    // after the end of the last segment plus one
+    private final int[] bounds;
+    // Segments decoded and encoded, of which a racy write is fine
+    private final String[] segments;
+    private final String[] encoded;
+    private List<String> encodedView;
+
+    PathSegments(CharSequence source, int start, int end) {
+        this.source = source;
+        pathStart = start;
+        if (start == end) {
+            bounds = new int[1];
+            segments = new String[0];
+            encoded = segments;
+            return;
+        }
+        if (source.charAt(start) == '/')
+            start++;
+        int n = 1;
+        for (int i = start; i < end; i++) {
+            if (source.charAt(i) == '/')
+                n++;
+        }
+        int[] b = new int[n + 1];
+        b[0] = start;
+        int k = 1;
+        for (int i = start; i < end; i++) {
+            if (source.charAt(i) == '/')
+                b[k++] = i + 1;
+        }
+        b[n] = end + 1;
+        bounds = b;
+        segments = new String[n];
+        encoded = new String[n];
+    }
+
+    /**
+     * Gets the decoded segment at the given index.
+     * <p>
+     * A segment might contain "/" decoded from "%2F".
+     *
+     * @param index the index of the segment
+     * @return the segment, without a leading or trailing "/"
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    @Override
+    public String get(int index) {
+        String s = segments[index];
+        if (s == null)
+            segments[index] = s = decode(source, bounds[index], bounds[index + 1] - 1, false);
+        return s;
+    }
+
+    /**
+     * Gets the encoded segment at the given index.
+     * <p>
+     * The segment is created when first got.
+     *
+     * @param index the index of the segment
+     * @return the segment, without a leading or trailing "/"
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public String encodedSegment(int index) {
+        String s = encoded[index];
+        if (s == null)
+            encoded[index] = s = source.subSequence(bounds[index], bounds[index + 1] - 1).toString();
+        return s;
+    }
+
+    /**
+     * Gets an unmodifiable list of the encoded segments,
+     * each got by {@link #encodedSegment(int)}, with nothing decoded.
+     *
+     * @return the encoded segments
+     */
+    public List<String> encodedSegments() {
+        List<String> v = encodedView;
+        if (v == null)
+            encodedView = v = new EncodedList();
+        return v;
+    }
+
+    /**
+     * Gets the index of the first char of the segment at the given index
+     * in the encoded path.
+     *
+     * @param index the index of the segment
+     * @return the start index of the segment in {@link Uri#encodedPath()}
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public int segmentStart(int index) {
+        checkIndex(index);
+        return bounds[index] - pathStart;
+    }
+
+    /**
+     * Gets the index after the last char of the segment at the given index
+     * in the encoded path.
+     *
+     * @param index the index of the segment
+     * @return the end index of the segment in {@link Uri#encodedPath()}
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public int segmentEnd(int index) {
+        checkIndex(index);
+        return bounds[index + 1] - 1 - pathStart;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= segments.length)
+            throw new IndexOutOfBoundsException();
+    }
+
+    @Override
+    public int size() {
+        return segments.length;
+    }
+
+    private final class EncodedList extends AbstractList<String> implements RandomAccess {
+        @Override
+        public String get(int index) {
+            return encodedSegment(index);
+        }
+
+        @Override
+        public int size() {
+            return segments.length;
+        }
+    }
+}
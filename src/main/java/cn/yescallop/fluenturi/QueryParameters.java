@@ -0,0 +1,168 @@
+package cn.yescallop.fluenturi;
+
+import java.util.*;
+
+import static cn.yescallop.fluenturi.CharUtils.*;
+
+/**
+ * An unmodifiable view of the parameters in an encoded query.
+ * <p>
+ * The bounds of the parameters are indexed once, and each name or value
+ * is decoded only when first looked up or iterated.
+ * A view is cached on its Uri, and is safe to share across threads.
+ *
+ * @author Scallop Ye
+ * @see Uri#queryParameters()
+ */
+final class QueryParameters extends AbstractMap<String, List<String>> {
+
+    private final CharSequence source;
+    // The start index, the index of the last '=' or the end index if the value
+    // is not present, and the end index of each non-empty parameter
+    private final int[] bounds;
+    private final int count;
+    // Names and values decoded, of which a racy write is fine
+    private final String[] names;
+    private final String[] values;
+    // Parameters grouped by name, in order of first occurrence,
+    // when first iterated or counted
+    private volatile Map<String, List<String>> grouped;
+
+    QueryParameters(CharSequence source, int start, int end) {
+        this.source = source;
+        int n = 1;
+        for (int i = start; i < end; i++) {
+            if (source.charAt(i) == '&')
+                n++;
+        }
+        int[] b = new int[n * 3];
+        int count = 0;
+        for (int p = start; p <= end; ) {
+            int and = indexOf(source, '&', p, end);
+            if (and > p) { // skip empty params
+                b[count * 3] = p;
+                b[count * 3 + 1] = lastIndexOf(source, '=', p, and);
+                b[count * 3 + 2] = and;
+                count++;
+            }
+            p = and + 1;
+        }
+        bounds = b;
+        this.count = count;
+        names = new String[count];
+        values = new String[count];
+    }
+
+    private String name(int i) {
+        String name = names[i];
+        if (name == null) {
+            int start = bounds[i * 3];
+            int equals = bounds[i * 3 + 1];
+            names[i] = name = decode(source, start, equals, true);
+        }
+        return name;
+    }
+
+    private String value(int i) {
+        int equals = bounds[i * 3 + 1];
+        int end = bounds[i * 3 + 2];
+        if (equals == end)
+            return null;
+        String value = values[i];
+        if (value == null)
+            values[i] = value = decode(source, equals + 1, end, true);
+        return value;
+    }
+
+    private boolean nameEquals(int i, String name) {
+        String decoded = names[i];
+        if (decoded != null)
+            return decoded.equals(name);
+        return decodedEquals(source, bounds[i * 3], bounds[i * 3 + 1], name);
+    }
+
+    @Override
+    public List<String> get(Object key) {
+        if (!(key instanceof String))
+            return null;
+        Map<String, List<String>> g = grouped;
+        if (g != null)
+            return g.get(key);
+        // Scans the parameters, as a lookup is usually of a few names
+        String name = (String) key;
+        ValueList res = null;
+        for (int i = 0; i < count; i++) {
+            if (nameEquals(i, name)) {
+                if (res == null)
+                    res = new ValueList(i);
+                else res.add(i);
+            }
+        }
+        return res;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    @Override
+    public int size() {
+        return grouped().size();
+    }
+
+    @Override
+    public Set<Entry<String, List<String>>> entrySet() {
+        return grouped().entrySet();
+    }
+
+    private Map<String, List<String>> grouped() {
+        Map<String, List<String>> g = grouped;
+        if (g == null) {
+            Map<String, ValueList> m = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                String name = name(i);
+                ValueList v = m.get(name);
+                if (v == null)
+                    m.put(name, new ValueList(i));
+                else v.add(i);
+            }
+            grouped = g = Collections.unmodifiableMap(m);
+        }
+        return g;
+    }
+
+    // The values of a name, at the indexes of the parameters
+    private final class ValueList extends AbstractList<String> implements RandomAccess {
+        private int[] indexes;
+        private int size;
+
+        ValueList(int i) {
+            indexes = new int[]{i};
+            size = 1;
+        }
+
+        void add(int i) {
+            if (size == indexes.length)
+                indexes = Arrays.copyOf(indexes, size * 2);
+            indexes[size++] = i;
+        }
+
+        @Override
+        public String get(int index) {
+            if (index < 0 || index >= size)
+                throw new IndexOutOfBoundsException();
+            return value(indexes[index]);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
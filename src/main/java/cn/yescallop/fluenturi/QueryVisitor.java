@@ -0,0 +1,30 @@
+package cn.yescallop.fluenturi;
+
+/**
+ * A visitor of the parameters in an encoded query, called back with
+ * the bounds of each parameter in the chars, so that nothing is created
+ * unless asked for.
+ * <p>
+ * Empty parameters are skipped, e.g. "&amp;". A name or value may be
+ * decoded with {@link CharUtils#decode(CharSequence, int, int, boolean)}
+ * or {@link CharUtils#decodeToBytes(CharSequence, int, int, boolean)},
+ * with plus as space.
+ *
+ * @author Scallop Ye
+ * @see Uri#visitQuery(QueryVisitor)
+ * @see CharUtils#visitQuery(CharSequence, int, int, QueryVisitor)
+ */
+@FunctionalInterface
+public interface QueryVisitor {
+
+    /**
+     * Visits a parameter.
+     *
+     * @param cs the chars containing the encoded query
+     * @param nameStart the index of the first char of the name
+     * @param nameEnd the index after the last char of the name
+     * @param valueStart the index of the first char of the value, or -1 if no value
+     * @param valueEnd the index after the last char of the value, or -1 if no value
+     */
+    void visit(CharSequence cs, int nameStart, int nameEnd, int valueStart, int valueEnd);
+}
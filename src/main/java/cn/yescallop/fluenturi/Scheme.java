@@ -0,0 +1,123 @@
+package cn.yescallop.fluenturi;
+
+import java.util.Locale;
+
+/**
+ * A commonly used URI scheme, with metadata such as its default port.
+ * <p>
+ * A Uri whose scheme is written in lower case as one of these
+ * shares the {@link #name()} instance of it, so that its scheme
+ * may be compared by reference.
+ *
+ * @author Scallop Ye
+ * @see Uri#knownScheme()
+ */
+public final class Scheme {
+
+    public static final Scheme HTTP = new Scheme("http", 80);
+    public static final Scheme HTTPS = new Scheme("https", 443);
+    public static final Scheme WS = new Scheme("ws", 80);
+    public static final Scheme WSS = new Scheme("wss", 443);
+    public static final Scheme FTP = new Scheme("ftp", 21);
+    public static final Scheme FILE = new Scheme("file", -1);
+    public static final Scheme MAILTO = new Scheme("mailto", -1);
+    public static final Scheme DATA = new Scheme("data", -1);
+    public static final Scheme URN = new Scheme("urn", -1);
+
+    private final String name;
+    private final int defaultPort;
+
+    private Scheme(String name, int defaultPort) {
+        this.name = name;
+        this.defaultPort = defaultPort;
+    }
+
+    /**
+     * Gets the known scheme of the given name, ignoring case.
+     *
+     * @param name a scheme name
+     * @return the scheme, or null if not known
+     */
+    public static Scheme of(String name) {
+        Scheme s = lookup(name, 0, name.length());
+        if (s == null)
+            s = lookup(name.toLowerCase(Locale.ROOT), 0, name.length());
+        return s;
+    }
+
+    // Gets the known scheme exactly matching the chars in [start, end),
+    // without creating a string.
+    static Scheme lookup(CharSequence s, int start, int end) {
+        Scheme r;
+        switch (end - start) {
+            case 2:
+                r = WS;
+                break;
+            case 3:
+                switch (s.charAt(start)) {
+                    case 'w':
+                        r = WSS;
+                        break;
+                    case 'f':
+                        r = FTP;
+                        break;
+                    case 'u':
+                        r = URN;
+                        break;
+                    default:
+                        return null;
+                }
+                break;
+            case 4:
+                switch (s.charAt(start)) {
+                    case 'h':
+                        r = HTTP;
+                        break;
+                    case 'f':
+                        r = FILE;
+                        break;
+                    case 'd':
+                        r = DATA;
+                        break;
+                    default:
+                        return null;
+                }
+                break;
+            case 5:
+                r = HTTPS;
+                break;
+            case 6:
+                r = MAILTO;
+                break;
+            default:
+                return null;
+        }
+        String name = r.name;
+        for (int i = 0; i < name.length(); i++) {
+            if (s.charAt(start + i) != name.charAt(i))
+                return null;
+        }
+        return r;
+    }
+
+    /**
+     * Gets the name of this scheme, in lower case.
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Gets the default port of this scheme.
+     *
+     * @return the port, or -1 if the scheme has none
+     */
+    public int defaultPort() {
+        return defaultPort;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
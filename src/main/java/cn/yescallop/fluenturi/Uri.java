@@ -1,6 +1,9 @@
 package cn.yescallop.fluenturi;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
 
@@ -22,6 +25,97 @@ public interface Uri {
         return new UriImpl(str);
     }
 
+    /**
+     * Gets the Uri for the given encoded URI-reference string from a cache,
+     * or creates and caches it.
+     *
+     * @param str an RFC 3986-compliant, encoded URI-reference, as defined in Section 4.1
+     * @param cache a Uri cache
+     * @throws UriSyntaxException if the input string violates RFC 3986.
+     */
+    static Uri from(String str, UriCache cache) {
+        return cache.from(str);
+    }
+
+    /**
+     * Parses the given encoded URI-reference string without throwing
+     * if it violates RFC 3986, in which case no stack trace is captured.
+     *
+     * @param str an RFC 3986-compliant, encoded URI-reference, as defined in Section 4.1
+     * @return the result holding either a Uri or the reason and index of failure
+     */
+    static ParseResult tryParse(String str) {
+        return UriImpl.tryParse(str);
+    }
+
+    /**
+     * Parses the given encoded URI-reference strings in parallel,
+     * in the common {@link java.util.concurrent.ForkJoinPool},
+     * without throwing if any of them violates RFC 3986.
+     *
+     * @param strs the URI-reference strings
+     * @return the parsed Uris and the failures, each at the index of its input string
+     * @throws NullPointerException if the list or any of the strings is null
+     * @see #tryParse(String)
+     */
+    static BatchParseResult parseAll(List<String> strs) {
+        return BatchParser.parse(strs.toArray(new String[0]));
+    }
+
+    /**
+     * Creates a Uri from the encoded URI-reference in the given range
+     * of a char sequence.
+     * <p>
+     * The chars are validated in place, and copied only if valid.
+     *
+     * @param cs a char sequence containing the URI-reference
+     * @param start the index of the first char
+     * @param end the index after the last char
+     * @throws UriSyntaxException if the input violates RFC 3986,
+     * in which case the input and index are relative to the range.
+     * @throws IndexOutOfBoundsException if start or end is out of bounds
+     */
+    static Uri from(CharSequence cs, int start, int end) {
+        return new UriImpl(cs, start, end);
+    }
+
+    /**
+     * Creates a Uri from the given encoded URI-reference in US-ASCII bytes.
+     * <p>
+     * The bytes are validated as they are, without being decoded into a string,
+     * and are copied only if valid. Components are not created until
+     * their getters are called.
+     *
+     * @param bytes an array containing the URI-reference
+     * @param off the index of the first byte
+     * @param len the number of bytes
+     * @throws UriSyntaxException if the input violates RFC 3986.
+     * @throws IndexOutOfBoundsException if off or len is out of bounds
+     */
+    static Uri from(byte[] bytes, int off, int len) {
+        return new UriImpl(new AsciiString(bytes, off, len), true);
+    }
+
+    /**
+     * Creates a Uri from the encoded URI-reference in US-ASCII bytes
+     * between the position and the limit of the given buffer.
+     * <p>
+     * The position of the buffer is not changed.
+     *
+     * @param buf a buffer containing the URI-reference
+     * @throws UriSyntaxException if the input violates RFC 3986.
+     * @see #from(byte[], int, int)
+     */
+    static Uri from(ByteBuffer buf) {
+        if (buf.hasArray()) {
+            return new UriImpl(new AsciiString(buf.array(),
+                    buf.arrayOffset() + buf.position(), buf.remaining()), true);
+        }
+        byte[] b = new byte[buf.remaining()];
+        buf.duplicate().get(b);
+        return new UriImpl(new AsciiString(b, 0, b.length), false);
+    }
+
     /**
      * Creates a new empty builder.
      */
@@ -41,6 +135,13 @@ public interface Uri {
      */
     String scheme();
 
+    /**
+     * Gets the known scheme of this Uri, ignoring case.
+     *
+     * @return the scheme, or null if not known or if this is a relative URI
+     */
+    Scheme knownScheme();
+
     /**
      * Gets the decoded user information.
      *
@@ -89,10 +190,13 @@ public interface Uri {
      * Gets the decoded path segments.
      * <p>
      * A segment might contain "/" decoded from "%2F".
+     * <p>
+     * The returned list is unmodifiable, and each segment is decoded
+     * when first got.
      *
      * @return the path segments, each without a leading or trailing "/"
      */
-    List<String> pathSegments();
+    PathSegments pathSegments();
 
     /**
      * Gets the encoded path.
@@ -113,11 +217,106 @@ public interface Uri {
      * <p>
      * Empty parameters are omitted, e.g. "&".
      * Empty parameter names or values are allowed, e.g. "=".
+     * A parameter is split at its last "=", e.g. "a=b=c" has
+     * the name "a=b" and the value "c".
+     * <p>
+     * The returned map is unmodifiable, and iterates in order of
+     * the first occurrence of each name. Names and values are decoded
+     * as they are looked up or iterated.
      *
      * @return the query parameters, or null if query is not present
      */
     Map<String, List<String>> queryParameters();
 
+    /**
+     * Gets the decoded first value of the query parameter with the given name.
+     * <p>
+     * The query is scanned without decoding any other parameter.
+     *
+     * @param name a decoded parameter name
+     * @return the value, or null if the parameter has no value,
+     * or if the parameter or the query is not present
+     * @see #queryParameters()
+     */
+    String queryParameter(String name);
+
+    /**
+     * Gets the decoded values of the query parameter with the given name.
+     * <p>
+     * The query is scanned without decoding any other parameter.
+     *
+     * @param name a decoded parameter name
+     * @return the values, with null for each occurrence without a value,
+     * or an empty list if the parameter or the query is not present
+     * @see #queryParameters()
+     */
+    List<String> queryParameterValues(String name);
+
+    /**
+     * Gets the first value of the query parameter with the given name
+     * as a decimal long, parsed from the encoded chars without decoding
+     * them into a string.
+     *
+     * @param name a decoded parameter name
+     * @param defaultValue the value returned if the parameter has no value
+     * or an empty value, or if the parameter or the query is not present
+     * @return the value
+     * @throws NumberFormatException if the value is not a decimal long
+     * @see Long#parseLong(String)
+     */
+    long queryParameterAsLong(String name, long defaultValue);
+
+    /**
+     * Gets the first value of the query parameter with the given name
+     * as a decimal int, parsed from the encoded chars without decoding
+     * them into a string.
+     *
+     * @param name a decoded parameter name
+     * @param defaultValue the value returned if the parameter has no value
+     * or an empty value, or if the parameter or the query is not present
+     * @return the value
+     * @throws NumberFormatException if the value is not a decimal int
+     * @see Integer#parseInt(String)
+     */
+    int queryParameterAsInt(String name, int defaultValue);
+
+    /**
+     * Gets the first value of the query parameter with the given name
+     * as a boolean, that is, "true" or "false" ignoring case,
+     * parsed from the encoded chars without decoding them into a string.
+     *
+     * @param name a decoded parameter name
+     * @param defaultValue the value returned if the parameter has no value
+     * or an empty value, or if the parameter or the query is not present
+     * @return the value
+     * @throws IllegalArgumentException if the value is neither "true" nor "false"
+     */
+    boolean queryParameterAsBoolean(String name, boolean defaultValue);
+
+    /**
+     * Gets the decoded octets of the first value of the query parameter
+     * with the given name, without decoding them as UTF-8.
+     * <p>
+     * This suits a value carrying binary data, such as a signature.
+     *
+     * @param name a decoded parameter name
+     * @return the octets, which are empty if the parameter has no value,
+     * or null if the parameter or the query is not present
+     */
+    byte[] queryParameterBytes(String name);
+
+    /**
+     * Visits the parameters in the query with the given visitor,
+     * called back with the bounds of each in the chars of this Uri,
+     * without creating anything.
+     * <p>
+     * Nothing is visited if the query is not present.
+     *
+     * @param visitor a query visitor
+     * @see #queryParameters()
+     */
+    void visitQuery(QueryVisitor visitor);
+
     /**
      * Gets the decoded fragment.
      *
@@ -168,6 +367,34 @@ public interface Uri {
      */
     URI toURI();
 
+    /**
+     * Gets an equal Uri whose encoded form is stored in US-ASCII bytes,
+     * one byte per char, from which its encoded components and string
+     * are created whenever they are got, without being retained.
+     *
+     * @return a compact Uri, or this if already compact
+     */
+    Uri compact();
+
+    /**
+     * Writes the encoded form of this Uri in US-ASCII bytes
+     * to the given output stream.
+     *
+     * @param out an output stream
+     * @throws IOException if an I/O error occurs
+     */
+    void writeTo(OutputStream out) throws IOException;
+
+    /**
+     * Writes the encoded form of this Uri in US-ASCII bytes
+     * to the given buffer, advancing its position.
+     *
+     * @param buf a buffer
+     * @throws java.nio.BufferOverflowException if there is insufficient space in the buffer
+     * @throws java.nio.ReadOnlyBufferException if the buffer is read-only
+     */
+    void writeTo(ByteBuffer buf);
+
     /**
      * A builder of {@link Uri}.
      */
@@ -228,6 +455,7 @@ public interface Uri {
          *
          * @param port the port or -1 if not present
          * @return this builder
+         * @throws IllegalArgumentException if port is out of range
          */
         Builder port(int port);
 
@@ -321,8 +549,10 @@ public interface Uri {
         /**
          * Encodes the host with IDNA encoding described in
          * <a href="https://www.ietf.org/rfc/rfc3490.html">RFC 3490</a>,
-         * using the method in {@link java.net.IDN}, and checks whether
+         * with a host in ASCII left as it is, and checks whether
          * the encoded hostname is compliant with DNS.
+         *
+         * @see HostCache
          */
         DNS_COMPLIANT
     }
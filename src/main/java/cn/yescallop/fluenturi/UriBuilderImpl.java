@@ -34,8 +34,11 @@ final class UriBuilderImpl implements Uri.Builder {
         if (scheme != null) {
             if (scheme.isEmpty())
                 throw new IllegalArgumentException("Empty scheme");
-            checkChar(scheme, 0, L_ALPHA, H_ALPHA, "scheme");
-            checkChars(scheme, 1, scheme.length(), L_SCHEME, H_SCHEME, "scheme");
+            checkChar(scheme, 0, CharClass.ALPHA, "scheme");
+            checkChars(scheme, 1, scheme.length(), CharClass.SCHEME, "scheme");
+            Scheme known = Scheme.lookup(scheme, 0, scheme.length());
+            if (known != null)
+                scheme = known.name();
         }
         this.scheme = scheme;
         return this;
@@ -44,7 +47,7 @@ final class UriBuilderImpl implements Uri.Builder {
     @Override
     public Uri.Builder userInfo(String userInfo) {
         if (userInfo != null)
-            userInfo = encode(userInfo, L_USERINFO, H_USERINFO);
+            userInfo = encode(userInfo, CharClass.USERINFO);
         this.userInfo = userInfo;
         return this;
     }
@@ -52,7 +55,7 @@ final class UriBuilderImpl implements Uri.Builder {
     @Override
     public Uri.Builder encodedUserInfo(String encodedUserInfo) {
         if (encodedUserInfo != null)
-            checkChars(encodedUserInfo, L_USERINFO, H_USERINFO, "userinfo");
+            checkChars(encodedUserInfo, CharClass.USERINFO, "userinfo");
         userInfo = encodedUserInfo;
         return this;
     }
@@ -78,7 +81,7 @@ final class UriBuilderImpl implements Uri.Builder {
                     && encodedHost.charAt(len - 1) == ']') {
                 checkIpv6Address(encodedHost, 1, len - 1, true);
             } else {
-                checkChars(encodedHost, L_REG_NAME, H_REG_NAME, "host");
+                checkChars(encodedHost, CharClass.REG_NAME, "host");
             }
         }
         this.encodedHost = encodedHost;
@@ -88,8 +91,8 @@ final class UriBuilderImpl implements Uri.Builder {
 
     @Override
     public Uri.Builder port(int port) {
-        if (port < -1)
-            throw new IllegalArgumentException();
+        if (port < -1 || port > 65535)
+            throw new IllegalArgumentException("Port out of range");
         this.port = port;
         return this;
     }
@@ -97,7 +100,7 @@ final class UriBuilderImpl implements Uri.Builder {
     @Override
     public Uri.Builder path(String path) {
         if (path != null)
-            path = encode(path, L_PATH, H_PATH);
+            path = encode(path, CharClass.PATH);
         this.path = path;
         pathBuilder = null;
         return this;
@@ -106,7 +109,6 @@ final class UriBuilderImpl implements Uri.Builder {
     @Override
     public Uri.Builder appendPathSegment(String segment) {
         Objects.requireNonNull(segment);
-        segment = encode(segment, L_PCHAR, H_PCHAR);
         if (pathBuilder == null) {
             pathBuilder = new StringBuilder(path.length() + segment.length() + 16);
             pathBuilder.append(path);
@@ -118,7 +120,7 @@ final class UriBuilderImpl implements Uri.Builder {
         int len = pathBuilder.length();
         if (len != 0 && pathBuilder.charAt(len - 1) != '/')
             pathBuilder.append('/');
-        pathBuilder.append(segment);
+        encodeTo(pathBuilder, segment, CharClass.PCHAR, false);
         return this;
     }
 
@@ -127,7 +129,7 @@ final class UriBuilderImpl implements Uri.Builder {
         if (pathBuilder != null)
             throw new IllegalStateException("path already appended to");
         if (encodedPath != null)
-            checkChars(encodedPath, L_PATH, H_PATH, "path");
+            checkChars(encodedPath, CharClass.PATH, "path");
         this.path = encodedPath;
         return this;
     }
@@ -136,9 +138,6 @@ final class UriBuilderImpl implements Uri.Builder {
     public Uri.Builder appendQueryParameter(String name, String value) {
         if (name == null)
             throw new NullPointerException();
-        name = encode(name, L_QUERY_PARAM, H_QUERY_PARAM);
-        if (value != null)
-            value = encode(value, L_QUERY_PARAM, H_QUERY_PARAM);
         if (queryBuilder == null) {
             int len = name.length() + 16;
             if (query != null) len += query.length();
@@ -149,10 +148,11 @@ final class UriBuilderImpl implements Uri.Builder {
         }
         if (queryBuilder.length() != 0)
             queryBuilder.append('&');
-        queryBuilder.append(name);
+        // Encodes straight into the builder
+        encodeTo(queryBuilder, name, CharClass.QUERY_PARAM, false);
         if (value != null) {
             queryBuilder.append('=');
-            queryBuilder.append(value);
+            encodeTo(queryBuilder, value, CharClass.QUERY_PARAM, false);
         }
         return this;
     }
@@ -162,7 +162,7 @@ final class UriBuilderImpl implements Uri.Builder {
         if (queryBuilder != null)
             throw new IllegalStateException("query already appended to");
         if (encodedQuery != null)
-            checkChars(encodedQuery, L_QUERY_FRAGMENT, H_QUERY_FRAGMENT, "query");
+            checkChars(encodedQuery, CharClass.QUERY_FRAGMENT, "query");
         query = encodedQuery;
         return this;
     }
@@ -178,7 +178,7 @@ final class UriBuilderImpl implements Uri.Builder {
     @Override
     public Uri.Builder fragment(String fragment) {
         if (fragment != null)
-            fragment = encode(fragment, L_QUERY_FRAGMENT, L_QUERY_FRAGMENT);
+            fragment = encode(fragment, CharClass.QUERY_FRAGMENT);
         this.fragment = fragment;
         return this;
     }
@@ -186,7 +186,7 @@ final class UriBuilderImpl implements Uri.Builder {
     @Override
     public Uri.Builder encodedFragment(String encodedFragment) {
         if (encodedFragment != null)
-            checkChars(encodedFragment, L_QUERY_FRAGMENT, H_QUERY_FRAGMENT, "fragment");
+            checkChars(encodedFragment, CharClass.QUERY_FRAGMENT, "fragment");
         fragment = encodedFragment;
         return this;
     }
@@ -0,0 +1,83 @@
+package cn.yescallop.fluenturi;
+
+/**
+ * A bounded cache of parsed Uris keyed by their input strings,
+ * safe to share across threads.
+ * <p>
+ * As a Uri is immutable, a cached one is returned for a repeated input,
+ * along with its components that have been decoded.
+ * An input that fails to be parsed is not cached.
+ *
+ * @author Scallop Ye
+ * @see Uri#from(String, UriCache)
+ */
+public final class UriCache {
+
+    private final ClockCache<String, Uri> cache;
+
+    /**
+     * Creates a Uri cache.
+     *
+     * @param capacity the maximum number of Uris cached
+     * @throws IllegalArgumentException if capacity is negative
+     */
+    public UriCache(int capacity) {
+        cache = new ClockCache<>(capacity);
+    }
+
+    /**
+     * Gets the Uri cached for the given encoded URI-reference string,
+     * or parses and caches it.
+     *
+     * @param str an RFC 3986-compliant, encoded URI-reference, as defined in Section 4.1
+     * @throws UriSyntaxException if the input string violates RFC 3986.
+     */
+    public Uri from(String str) {
+        return cache.get(str, UriImpl::new);
+    }
+
+    /**
+     * Gets the maximum number of Uris cached.
+     */
+    public int capacity() {
+        return cache.capacity();
+    }
+
+    /**
+     * Gets the number of Uris currently cached.
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Gets the number of inputs found in the cache.
+     */
+    public long hitCount() {
+        return cache.hitCount();
+    }
+
+    /**
+     * Gets the number of inputs not found in the cache.
+     */
+    public long missCount() {
+        return cache.missCount();
+    }
+
+    /**
+     * Gets the ratio of inputs found in the cache to all inputs,
+     * or 0 if there has been no input.
+     */
+    public double hitRate() {
+        long hits = cache.hitCount();
+        long total = hits + cache.missCount();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Removes all of the cached Uris. The counters are not reset.
+     */
+    public void clear() {
+        cache.clear();
+    }
+}
@@ -1,8 +1,12 @@
 package cn.yescallop.fluenturi;
 
-import java.net.IDN;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.nio.ReadOnlyBufferException;
 import java.util.*;
 
 import static cn.yescallop.fluenturi.CharUtils.*;
@@ -14,28 +18,30 @@ import static cn.yescallop.fluenturi.CharUtils.*;
  */
 final class UriImpl implements Uri {
 
-    private String string;
+    // Indexes into the offsets table, each followed by the end index
+    private static final int SCHEME = 0;
+    private static final int USER_INFO = 2;
+    private static final int HOST = 4;
+    private static final int PATH = 6;
+    private static final int QUERY = 8;
+    private static final int FRAGMENT = 10;
 
-    private String scheme;
-    private String encodedUserInfo;
-    private String encodedHost;
+    // Characters of the URI-reference, either a String or an AsciiString
+    private CharSequence source;
+    // Start and end indexes of the components in the source, with the start
+    // being -1 if not present, packed in a char[] with 0xFFFF for -1
+    // if the source is shorter than 0xFFFF, or in an int[] otherwise
+    private Object offsets;
     private int port = -1;
-    private String encodedPath;
-    private String encodedQuery;
-    private String encodedFragment;
-
-    private String userInfo;
-    private String host;
-    private String path;
-    private String fragment;
+    // Strings of the components, attached when any of them is first got
+    private Values values;
 
     private UriImpl() {
         // private access
     }
 
     UriImpl(UriBuilderImpl b) {
-        scheme = b.scheme;
-        encodedPath = b.pathBuilder != null ?
+        String encodedPath = b.pathBuilder != null ?
                 b.pathBuilder.toString() : b.path;
         if (b.host == null && encodedPath.startsWith("//"))
             // When authority is not present, the path cannot
@@ -48,18 +54,19 @@ final class UriImpl implements Uri {
             if (b.host != null)
                 throw new IllegalArgumentException("Path is rootless when authority is present");
 
-            correctNoSchemePath();
+            encodedPath = correctNoSchemePath(b.scheme, encodedPath);
         }
 
+        String encodedHost = null;
         if (b.encodedHost != null) {
             encodedHost = b.encodedHost;
         } else if (b.host != null) {
-            host = b.host;
+            String host = b.host;
             if (host.indexOf(':') >= 0) {
                 int pct = checkIpv6Address(host, 0, host.length(), false);
                 if (pct >= 0) { // scoped
                     int len = host.length();
-                    String zoneId = encode(host.substring(pct + 1, len), L_ZONE_ID, H_ZONE_ID);
+                    String zoneId = encode(host.substring(pct + 1, len), CharClass.ZONE_ID);
                     StringBuilder sb = new StringBuilder(pct + zoneId.length() + 5);
                     sb.append('[');
                     sb.append(host, 0, pct);
@@ -74,72 +81,174 @@ final class UriImpl implements Uri {
                 encodedHost = host;
             } else switch (b.hostEncodingOption) {
                 case DNS_COMPLIANT:
-                    encodedHost = IDN.toASCII(host, IDN.ALLOW_UNASSIGNED);
-                    checkHostname(encodedHost);
+                    encodedHost = HostCache.global().toAscii(host);
                     break;
                 case PERCENT_ENCODED:
-                    encodedHost = encode(host, L_REG_NAME, H_REG_NAME);
+                    encodedHost = encode(host, CharClass.REG_NAME);
                     break;
             }
         }
+        String encodedQuery = b.queryBuilder != null ?
+                b.queryBuilder.toString() : b.query;
         if (encodedHost != null) {
-            encodedUserInfo = b.userInfo;
-            port = b.port;
+            build(b.scheme, b.userInfo, encodedHost, b.port,
+                    encodedPath, encodedQuery, b.fragment);
+        } else {
+            build(b.scheme, null, null, -1,
+                    encodedPath, encodedQuery, b.fragment);
         }
-        encodedQuery = b.queryBuilder != null ?
-                b.queryBuilder.toString() : b.query;
-        encodedFragment = b.fragment;
+    }
+
+    // Creates a Uri from the given encoded components
+    private UriImpl(String scheme, String encodedUserInfo, String encodedHost, int port,
+                    String encodedPath, String encodedQuery, String encodedFragment) {
+        build(scheme, encodedUserInfo, encodedHost, port,
+                encodedPath, encodedQuery, encodedFragment);
     }
 
     UriImpl(String s) {
         new Parser(s).parse();
     }
 
+    // Parses the given chars without throwing
+    static ParseResult tryParse(CharSequence s) {
+        UriImpl u = new UriImpl();
+        Parser p = u.new Parser(s, 0, s.length(), false);
+        if (p.parse())
+            return new ParseResult(u);
+        return new ParseResult(s.toString(), p.reason, p.index);
+    }
+
+    // Parses the chars in [start, end), each below 0x100, without throwing,
+    // and copies them into bytes only after they validate
+    static ParseResult tryParseBytes(CharSequence s, int start, int end) {
+        UriImpl u = new UriImpl();
+        Parser p = u.new Parser(s, start, end, false);
+        if (!p.parse())
+            return new ParseResult(s.subSequence(start, end).toString(), p.reason, p.index);
+        u.source = AsciiString.of(s, start, end);
+        return new ParseResult(u);
+    }
+
+    // Parses the strings in [from, to) without throwing, storing each
+    // parsed Uri or failure at the same index, and returns the failure count
+    static int parseAll(String[] in, int from, int to,
+                        Uri[] uris, ParseResult[] failures) {
+        int failureCount = 0;
+        for (int i = from; i < to; i++) {
+            String s = in[i];
+            UriImpl u = new UriImpl();
+            Parser p = u.new Parser(s, 0, s.length(), false);
+            if (p.parse()) {
+                uris[i] = u;
+            } else {
+                failures[i] = new ParseResult(s, p.reason, p.index);
+                failureCount++;
+            }
+        }
+        return failureCount;
+    }
+
+    UriImpl(CharSequence s, int start, int end) {
+        if (start < 0 || start > end || end > s.length())
+            throw new IndexOutOfBoundsException();
+        new Parser(s, start, end, true).parse();
+        // Copies the validated chars, since the input might be mutable,
+        // or much longer than the URI-reference
+        source = s.subSequence(start, end).toString();
+    }
+
+    UriImpl(AsciiString s, boolean shared) {
+        new Parser(s).parse();
+        // Copies the validated bytes if they are shared with the caller
+        if (shared)
+            source = s.copy();
+    }
+
     @Override
     public Builder asBuilder() {
         UriBuilderImpl b = new UriBuilderImpl();
-        b.scheme = scheme;
-        b.userInfo = encodedUserInfo;
-        b.encodedHost = encodedHost;
+        b.scheme = scheme();
+        b.userInfo = encodedUserInfo();
+        b.encodedHost = encodedHost();
         b.port = port;
-        b.path = encodedPath;
-        b.query = encodedQuery;
-        b.fragment = encodedFragment;
+        b.path = encodedPath();
+        b.query = encodedQuery();
+        b.fragment = encodedFragment();
         return b;
     }
 
     @Override
     public String scheme() {
-        return scheme;
+        int start = offset(SCHEME);
+        if (start < 0)
+            return null;
+        // Shares the name instance of a known scheme
+        Scheme known = Scheme.lookup(source, start, offset(SCHEME + 1));
+        if (known != null)
+            return known.name();
+        if (inBytes())
+            return component(SCHEME);
+        Values v = values();
+        if (v.scheme == null)
+            v.scheme = component(SCHEME);
+        return v.scheme;
+    }
+
+    @Override
+    public Scheme knownScheme() {
+        String s = scheme();
+        return s == null ? null : Scheme.of(s);
     }
 
     @Override
     public String userInfo() {
-        if (userInfo == null && encodedUserInfo != null)
-            userInfo = decode(encodedUserInfo);
-        return userInfo;
+        if (offset(USER_INFO) < 0)
+            return null;
+        Values v = values();
+        if (v.userInfo == null)
+            v.userInfo = decode(encodedUserInfo());
+        return v.userInfo;
     }
 
     @Override
     public String encodedUserInfo() {
-        return encodedUserInfo;
+        if (offset(USER_INFO) < 0)
+            return null;
+        if (inBytes())
+            return component(USER_INFO);
+        Values v = values();
+        if (v.encodedUserInfo == null)
+            v.encodedUserInfo = component(USER_INFO);
+        return v.encodedUserInfo;
     }
 
     @Override
     public String host() {
-        if (host == null && encodedHost != null) {
+        if (offset(HOST) < 0)
+            return null;
+        Values v = values();
+        if (v.host == null) {
+            String encodedHost = encodedHost();
             int len = encodedHost.length();
             if (len >= 2 && encodedHost.charAt(0) == '['
                     && encodedHost.charAt(len - 1) == ']') {
-                host = decode(encodedHost.substring(1, len - 1));
-            } else host = decode(IDN.toUnicode(encodedHost, IDN.ALLOW_UNASSIGNED));
+                v.host = decode(encodedHost.substring(1, len - 1));
+            } else v.host = decode(HostCache.global().toUnicode(encodedHost));
         }
-        return host;
+        return v.host;
     }
 
     @Override
     public String encodedHost() {
-        return encodedHost;
+        if (offset(HOST) < 0)
+            return null;
+        if (inBytes())
+            return component(HOST);
+        Values v = values();
+        if (v.encodedHost == null)
+            v.encodedHost = component(HOST);
+        return v.encodedHost;
     }
 
     @Override
@@ -149,103 +258,173 @@ final class UriImpl implements Uri {
 
     @Override
     public String path() {
-        if (path == null)
-            path = decode(encodedPath);
-        return path;
+        Values v = values();
+        if (v.path == null)
+            v.path = decode(encodedPath());
+        return v.path;
     }
 
     @Override
-    public List<String> pathSegments() {
-        int len = encodedPath.length();
-        if (len == 0)
-            return new ArrayList<>(0);
-        int p = 0;
-        int i = 0;
-        if (encodedPath.charAt(0) == '/') {
-            p = 1;
-            i = 1;
-        }
-        List<String> res = new ArrayList<>();
-        for (; i <= len; i++) {
-            if (i == len || encodedPath.charAt(i) == '/') {
-                String seg = encodedPath.substring(p, i);
-                res.add(decode(seg));
-                p = i + 1;
-            }
-        }
-        return res;
+    public PathSegments pathSegments() {
+        Values v = values();
+        if (v.pathSegments == null)
+            v.pathSegments = new PathSegments(source, offset(PATH), offset(PATH + 1));
+        return v.pathSegments;
     }
 
     @Override
     public String encodedPath() {
-        return encodedPath;
+        if (inBytes())
+            return component(PATH);
+        Values v = values();
+        if (v.encodedPath == null)
+            v.encodedPath = component(PATH);
+        return v.encodedPath;
     }
 
     @Override
     public String encodedQuery() {
-        return encodedQuery;
+        if (offset(QUERY) < 0)
+            return null;
+        if (inBytes())
+            return component(QUERY);
+        Values v = values();
+        if (v.encodedQuery == null)
+            v.encodedQuery = component(QUERY);
+        return v.encodedQuery;
     }
 
     @Override
-    public Map<String, List<String>> queryParameters() {
-        if (encodedQuery == null)
+    public QueryParameters queryParameters() {
+        int start = offset(QUERY);
+        if (start < 0)
             return null;
-        int len = encodedQuery.length();
-        int equals = -1; // =
-        int and = -1; // &
-        Map<String, List<String>> res = new LinkedHashMap<>();
-        for (int i = 0; i <= len; i++) {
-            char c;
-            if (i == len || (c = encodedQuery.charAt(i)) == '&') {
-                if (i - 1 == and) { // skip empty params
-                    and = i;
-                    continue;
-                }
-
-                String value = null;
-                if (equals >= 0)
-                    value = decode(encodedQuery.substring(equals + 1, i), true);
-                else equals = i;
-                String name = decode(encodedQuery.substring(and + 1, equals), true);
+        Values v = values();
+        if (v.queryParameters == null)
+            v.queryParameters = new QueryParameters(source, start, offset(QUERY + 1));
+        return v.queryParameters;
+    }
 
-                res.computeIfAbsent(name, n -> new ArrayList<>(1))
-                        .add(value);
+    @Override
+    public String queryParameter(String name) {
+        int start = offset(QUERY);
+        if (start < 0)
+            return null;
+        int p = findQueryParameter(name, start);
+        if (p < 0)
+            return null;
+        int and = indexOf(source, '&', p, offset(QUERY + 1));
+        return p == and ? null : decode(source, p + 1, and, true);
+    }
 
-                equals = -1;
-                and = i;
-            } else if (c == '=') equals = i;
+    @Override
+    public List<String> queryParameterValues(String name) {
+        int start = offset(QUERY);
+        if (start < 0)
+            return Collections.emptyList();
+        int end = offset(QUERY + 1);
+        List<String> res = null;
+        for (int p = start; (p = findQueryParameter(name, p)) >= 0; ) {
+            int and = indexOf(source, '&', p, end);
+            if (res == null)
+                res = new ArrayList<>(1);
+            res.add(p == and ? null : decode(source, p + 1, and, true));
+            p = and + 1;
         }
-        return res;
+        return res == null ? Collections.emptyList() : res;
+    }
+
+    @Override
+    public long queryParameterAsLong(String name, long defaultValue) {
+        int start = offset(QUERY);
+        if (start < 0)
+            return defaultValue;
+        int p = findQueryParameter(name, start);
+        if (p < 0)
+            return defaultValue;
+        int and = indexOf(source, '&', p, offset(QUERY + 1));
+        // Defaults when there is no value or an empty one
+        return and - p <= 1 ? defaultValue : parseLong(source, p + 1, and);
+    }
+
+    @Override
+    public int queryParameterAsInt(String name, int defaultValue) {
+        int start = offset(QUERY);
+        if (start < 0)
+            return defaultValue;
+        int p = findQueryParameter(name, start);
+        if (p < 0)
+            return defaultValue;
+        int and = indexOf(source, '&', p, offset(QUERY + 1));
+        // Defaults when there is no value or an empty one
+        return and - p <= 1 ? defaultValue : parseInt(source, p + 1, and);
+    }
+
+    @Override
+    public boolean queryParameterAsBoolean(String name, boolean defaultValue) {
+        int start = offset(QUERY);
+        if (start < 0)
+            return defaultValue;
+        int p = findQueryParameter(name, start);
+        if (p < 0)
+            return defaultValue;
+        int and = indexOf(source, '&', p, offset(QUERY + 1));
+        // Defaults when there is no value or an empty one
+        return and - p <= 1 ? defaultValue : parseBoolean(source, p + 1, and);
+    }
+
+    @Override
+    public byte[] queryParameterBytes(String name) {
+        int start = offset(QUERY);
+        if (start < 0)
+            return null;
+        int p = findQueryParameter(name, start);
+        if (p < 0)
+            return null;
+        int and = indexOf(source, '&', p, offset(QUERY + 1));
+        return p == and ? new byte[0] : decodeToBytes(source, p + 1, and, true);
+    }
+
+    @Override
+    public void visitQuery(QueryVisitor visitor) {
+        int start = offset(QUERY);
+        if (start >= 0)
+            CharUtils.visitQuery(source, start, offset(QUERY + 1), visitor);
     }
 
     @Override
     public String fragment() {
-        if (fragment == null && encodedFragment != null)
-            fragment = decode(encodedFragment);
-        return fragment;
+        if (offset(FRAGMENT) < 0)
+            return null;
+        Values v = values();
+        if (v.fragment == null)
+            v.fragment = decode(encodedFragment());
+        return v.fragment;
     }
 
     @Override
     public String encodedFragment() {
-        return encodedFragment;
+        if (offset(FRAGMENT) < 0)
+            return null;
+        if (inBytes())
+            return component(FRAGMENT);
+        Values v = values();
+        if (v.encodedFragment == null)
+            v.encodedFragment = component(FRAGMENT);
+        return v.encodedFragment;
     }
 
     @Override
     public Uri normalize() {
+        String encodedPath = encodedPath();
         String normalizedPath = normalizePath(encodedPath);
         // If normalized, the length of path would be less.
         if (normalizedPath.length() == encodedPath.length())
             return this;
-        UriImpl r = new UriImpl();
-        r.scheme = scheme;
-        r.encodedUserInfo = encodedUserInfo;
-        r.encodedHost = encodedHost;
-        r.port = port;
-        r.encodedPath = normalizedPath;
-        r.encodedQuery = encodedQuery;
-        r.encodedFragment = encodedFragment;
-        r.correctNoSchemePath();
-        return r;
+        String scheme = scheme();
+        return new UriImpl(scheme, encodedUserInfo(), encodedHost(), port,
+                correctNoSchemePath(scheme, normalizedPath),
+                encodedQuery(), encodedFragment());
     }
 
     @Override
@@ -262,14 +441,49 @@ final class UriImpl implements Uri {
 
     @Override
     public boolean isRelative() {
-        return scheme == null;
+        return offset(SCHEME) < 0;
+    }
+
+    @Override
+    public Uri compact() {
+        if (inBytes())
+            return this;
+        UriImpl r = new UriImpl();
+        r.source = AsciiString.of(source);
+        // Offsets are never changed once recorded
+        r.offsets = offsets;
+        r.port = port;
+        return r;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        if (inBytes()) {
+            ((AsciiString) source).writeTo(out);
+        } else {
+            AsciiString.of(source).writeTo(out);
+        }
+    }
+
+    @Override
+    public void writeTo(ByteBuffer buf) {
+        if (inBytes()) {
+            ((AsciiString) source).writeTo(buf);
+            return;
+        }
+        CharSequence s = source;
+        int len = s.length();
+        if (buf.isReadOnly())
+            throw new ReadOnlyBufferException();
+        if (buf.remaining() < len)
+            throw new BufferOverflowException();
+        for (int i = 0; i < len; i++)
+            buf.put((byte) s.charAt(i));
     }
 
     @Override
     public String toString() {
-        if (string == null)
-            buildString();
-        return string;
+        return source.toString();
     }
 
     @Override
@@ -281,22 +495,114 @@ final class UriImpl implements Uri {
     public boolean equals(Object o) {
         if (this == o) return true;
         if (!(o instanceof UriImpl)) return false;
-        return toString().equals(o.toString());
+        CharSequence a = source;
+        CharSequence b = ((UriImpl) o).source;
+        int len = a.length();
+        if (b.length() != len)
+            return false;
+        for (int i = 0; i < len; i++) {
+            if (a.charAt(i) != b.charAt(i))
+                return false;
+        }
+        return true;
     }
 
     @Override
     public int hashCode() {
-        return toString().hashCode();
+        // Same as the hash code of the string, which is not created for bytes
+        if (!inBytes())
+            return source.hashCode();
+        CharSequence s = source;
+        int h = 0;
+        for (int i = 0; i < s.length(); i++)
+            h = 31 * h + s.charAt(i);
+        return h;
+    }
+
+    // Tells whether the source is in bytes, from which the encoded
+    // components are created whenever got, to keep it compact
+    private boolean inBytes() {
+        return source instanceof AsciiString;
+    }
+
+    // Gets the start or end index of a component in the source
+    private int offset(int i) {
+        Object o = offsets;
+        if (o instanceof char[]) {
+            char c = ((char[]) o)[i];
+            return c == 0xFFFF ? -1 : c;
+        }
+        return ((int[]) o)[i];
+    }
+
+    // Creates offsets of the given length, or of the source length,
+    // with each start index set to -1
+    private static Object newOffsets(int length) {
+        if (length < 0xFFFF) {
+            char[] o = new char[12];
+            Arrays.fill(o, (char) 0xFFFF);
+            return o;
+        }
+        int[] o = new int[12];
+        Arrays.fill(o, -1);
+        return o;
+    }
+
+    // Records the start and end indexes of a component
+    private static void setOffsets(Object offsets, int i, int start, int end) {
+        if (offsets instanceof char[]) {
+            char[] o = (char[]) offsets;
+            o[i] = (char) start;
+            o[i + 1] = (char) end;
+        } else {
+            int[] o = (int[]) offsets;
+            o[i] = start;
+            o[i + 1] = end;
+        }
+    }
+
+    // Finds the parameter of the given decoded name in the query
+    // from the given index, split at its last '=' as in QueryParameters,
+    // and returns the index after its name, or -1 if not found
+    private int findQueryParameter(String name, int from) {
+        CharSequence s = source;
+        int end = offset(QUERY + 1);
+        for (int p = from; p <= end; ) {
+            int and = indexOf(s, '&', p, end);
+            if (and > p) { // skip empty params
+                int equals = lastIndexOf(s, '=', p, and);
+                if (decodedEquals(s, p, equals, name))
+                    return equals;
+            }
+            p = and + 1;
+        }
+        return -1;
+    }
+
+    // Gets the given component from the source
+    private String component(int i) {
+        int start = offset(i);
+        return start < 0 ? null : source.subSequence(start, offset(i + 1)).toString();
     }
 
-    private void correctNoSchemePath() {
+    // Gets the values attached, or attaches them.
+    // A race might lose some values computed, which would be computed again.
+    private Values values() {
+        Values v = values;
+        if (v == null)
+            values = v = new Values();
+        return v;
+    }
+
+    private static String correctNoSchemePath(String scheme, String encodedPath) {
         // When scheme is not present, a rootless path
         // must not contain any colon in its first segment,
         // to bypass which a dot-segment needs to precede the path (Section 4.2).
         if (scheme == null // path-noscheme
                 && !isLegalNoSchemePath(encodedPath)) {
-            encodedPath = "./" + encodedPath;
+            return "./" + encodedPath;
         }
+        return encodedPath;
     }
 
     private static boolean isLegalNoSchemePath(String s) {
@@ -314,49 +620,54 @@ final class UriImpl implements Uri {
     private static Uri resolve(UriImpl base, UriImpl ref) {
         if (base.isRelative())
             throw new UnsupportedOperationException("Resolving against relative URI");
-        UriImpl t = new UriImpl();
-
-        if (ref.scheme != null) {
-            t.scheme = ref.scheme;
-            t.encodedUserInfo = ref.encodedUserInfo;
-            t.encodedHost = ref.encodedHost;
-            t.port = ref.port;
-            t.encodedPath = normalizePath(ref.encodedPath);
-            t.encodedQuery = ref.encodedQuery;
+        String scheme;
+        String encodedUserInfo;
+        String encodedHost;
+        int port;
+        String encodedPath;
+        String encodedQuery;
+
+        if (ref.scheme() != null) {
+            scheme = ref.scheme();
+            encodedUserInfo = ref.encodedUserInfo();
+            encodedHost = ref.encodedHost();
+            port = ref.port;
+            encodedPath = normalizePath(ref.encodedPath());
+            encodedQuery = ref.encodedQuery();
         } else {
-            if (ref.encodedHost != null) {
-                t.encodedUserInfo = ref.encodedUserInfo;
-                t.encodedHost = ref.encodedHost;
-                t.port = ref.port;
-                t.encodedPath = normalizePath(ref.encodedPath);
-                t.encodedQuery = ref.encodedQuery;
+            if (ref.encodedHost() != null) {
+                encodedUserInfo = ref.encodedUserInfo();
+                encodedHost = ref.encodedHost();
+                port = ref.port;
+                encodedPath = normalizePath(ref.encodedPath());
+                encodedQuery = ref.encodedQuery();
             } else {
-                if (ref.encodedPath.isEmpty()) {
-                    t.encodedPath = base.encodedPath;
-                    if (ref.encodedQuery != null) {
-                        t.encodedQuery = ref.encodedQuery;
+                if (ref.encodedPath().isEmpty()) {
+                    encodedPath = base.encodedPath();
+                    if (ref.encodedQuery() != null) {
+                        encodedQuery = ref.encodedQuery();
                     } else {
-                        t.encodedQuery = base.encodedQuery;
+                        encodedQuery = base.encodedQuery();
                     }
                 } else {
-                    if (ref.encodedPath.charAt(0) == '/') {
-                        t.encodedPath = normalizePath(ref.encodedPath);
-                    } else if (base.encodedHost != null && base.encodedPath.isEmpty()) {
-                        t.encodedPath = '/' + ref.encodedPath;
+                    if (ref.encodedPath().charAt(0) == '/') {
+                        encodedPath = normalizePath(ref.encodedPath());
+                    } else if (base.encodedHost() != null && base.encodedPath().isEmpty()) {
+                        encodedPath = '/' + ref.encodedPath();
                     } else {
-                        t.encodedPath = normalizePath(
-                                mergePaths(base.encodedPath, ref.encodedPath));
+                        encodedPath = normalizePath(
+                                mergePaths(base.encodedPath(), ref.encodedPath()));
                     }
-                    t.encodedQuery = ref.encodedQuery;
+                    encodedQuery = ref.encodedQuery();
                 }
-                t.encodedUserInfo = base.encodedUserInfo;
-                t.encodedHost = base.encodedHost;
-                t.port = base.port;
+                encodedUserInfo = base.encodedUserInfo();
+                encodedHost = base.encodedHost();
+                port = base.port;
             }
-            t.scheme = base.scheme;
+            scheme = base.scheme();
         }
-        t.encodedFragment = ref.encodedFragment;
-        return t;
+        return new UriImpl(scheme, encodedUserInfo, encodedHost, port,
+                encodedPath, encodedQuery, ref.encodedFragment());
     }
 
     private static String mergePaths(String base, String ref) {
@@ -447,159 +758,282 @@ final class UriImpl implements Uri {
         return i;
     }
 
-    private void buildString() {
+    // Builds the source from the given encoded components, recording their offsets
+    private void build(String scheme, String encodedUserInfo, String encodedHost, int port,
+                       String encodedPath, String encodedQuery, String encodedFragment) {
+        this.port = port;
         StringBuilder sb = new StringBuilder();
+        int[] o = {-1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1};
         if (scheme != null) {
             sb.append(scheme);
+            o[SCHEME] = 0;
+            o[SCHEME + 1] = sb.length();
             sb.append(':');
         }
         if (encodedHost != null) {
             sb.append("//");
             if (encodedUserInfo != null) {
+                o[USER_INFO] = sb.length();
                 sb.append(encodedUserInfo);
+                o[USER_INFO + 1] = sb.length();
                 sb.append('@');
             }
+            o[HOST] = sb.length();
             sb.append(encodedHost);
+            o[HOST + 1] = sb.length();
             if (port >= 0) {
                 sb.append(':');
                 sb.append(port);
             }
         }
+        o[PATH] = sb.length();
         sb.append(encodedPath);
+        o[PATH + 1] = sb.length();
         if (encodedQuery != null) {
             sb.append('?');
+            o[QUERY] = sb.length();
             sb.append(encodedQuery);
+            o[QUERY + 1] = sb.length();
         }
         if (encodedFragment != null) {
             sb.append('#');
+            o[FRAGMENT] = sb.length();
             sb.append(encodedFragment);
+            o[FRAGMENT + 1] = sb.length();
+        }
+        source = sb.toString();
+        offsets = newOffsets(sb.length());
+        for (int i = 0; i < o.length; i += 2) {
+            if (o[i] >= 0)
+                setOffsets(offsets, i, o[i], o[i + 1]);
         }
-        string = sb.toString();
     }
 
-    // Four of the most general delimiters
-    private static final char[] DELIMS = {':', '/', '?', '#'};
-
     private class Parser {
 
-        private final String input;
+        private final CharSequence input;
+        // Bounds of the URI-reference in the input
+        private final int base;
+        private final int end;
+        // Whether to throw on failure, or to record the reason and index
+        private final boolean throwing;
+        private String reason;
+        private int index;
 
-        private Parser(String s) {
-            string = s;
+        private Parser(CharSequence s) {
+            this(s, 0, s.length(), true);
+        }
+
+        private Parser(CharSequence s, int start, int end, boolean throwing) {
+            source = s;
             input = s;
+            base = start;
+            this.end = end;
+            this.throwing = throwing;
+            offsets = newOffsets(end - start);
         }
 
-        // Tells whether start < end and, if so, whether charAt(start) == c
-        private boolean at(int start, int end, char c) {
-            return (start < end) && (input.charAt(start) == c);
+        // Records the offsets of the given component, relative to the base
+        private void set(int i, int start, int end) {
+            setOffsets(offsets, i, start - base, end - base);
         }
 
-        // Scans the delimiters defined in DELIMS
-        private int[] scanDelims() {
-            int len = input.length();
-            int[] res = new int[DELIMS.length];
-            Arrays.fill(res, len);
-            for (int i = 0; i < len; i++) {
-                char ch = input.charAt(i);
-                for (int j = 0; j < DELIMS.length; j++) {
-                    if (res[j] == len && ch == DELIMS[j]) {
-                        res[j] = i;
-                    }
-                }
+        // Throws or records the failure, and returns false
+        private boolean fail(String reason, int p) {
+            if (throwing) {
+                throw new UriSyntaxException(
+                        input.subSequence(base, end).toString(), reason, p - base);
             }
-            return res;
+            this.reason = reason;
+            index = p - base;
+            return false;
         }
 
-        // Scans the given char backwards
-        private int scanBack(int start, int end, char ch, char stop) {
-            for (int i = start; i >= end; i--) {
-                char cur = input.charAt(i);
-                if (cur == ch) {
-                    return i;
-                } else if (cur == stop) {
-                    return -1;
-                }
+        // Fails at the char at position p, at which a scan with the given class stopped.
+        private boolean failIllegal(int p, CharClass cc, String what) {
+            if (cc.allowsPctEncoded() && input.charAt(p) == '%')
+                return fail("Malformed percent-encoded octet", p);
+            return fail("Illegal character in " + what, p);
+        }
+
+        // Scans the first of the delimiters ":/?#"
+        private int scanDelim(int start, int n) {
+            int p = start;
+            while (p < n) {
+                char c = input.charAt(p);
+                if (c == ':' || c == '/' || c == '?' || c == '#')
+                    break;
+                p++;
             }
-            return -1;
+            return p;
         }
 
-        // Parses the input string
-        private void parse() {
-            int n = input.length();
-            if (n == 0) {
-                path = encodedPath = "";
-                return;
+        // Parses the input string in a single pass, in which each component
+        // is validated while its ending delimiter is being looked for.
+        // Returns false if failed without throwing.
+        private boolean parse() {
+            int n = end;
+
+            // Scans the longest prefix which could be a scheme
+            int p = base;
+            if (p < n && CharClass.ALPHA.matches(input.charAt(p)))
+                p = scan(input, p + 1, n, CharClass.SCHEME);
+
+            int start = base; // start of the hier-part
+            if (p < n && input.charAt(p) == ':') {
+                if (p == base)
+                    return fail("Expected scheme", p);
+                set(SCHEME, base, p);
+                start = ++p;
+            } else {
+                // The scanned chars are legal in the path as well,
+                // so it goes on with the first path segment,
+                // which is a scheme with illegal chars if ended with ":".
+                int q = scan(input, p, n, CharClass.SEGMENT_NC);
+                if (q < n) {
+                    char c = input.charAt(q);
+                    if (c == ':')
+                        return fail("Illegal character in scheme", p);
+                    if (c != '/' && c != '?' && c != '#') {
+                        int d = scanDelim(q + 1, n);
+                        if (d < n && input.charAt(d) == ':')
+                            return fail("Illegal character in scheme", p);
+                        return failIllegal(q, CharClass.PATH, "path");
+                    }
+                }
+                p = q;
             }
 
-            int[] delims = scanDelims();
-            int colon = delims[0];
-            int slash = delims[1];
-            int qMark = delims[2]; // question mark
-            int sharp = delims[3];
-
-            if (colon == 0)
-                fail(input, "Expected scheme", 0);
-            if (sharp < qMark) qMark = n;
-
-            int p = 0;
-            if (colon < slash && colon < qMark && colon < sharp) {
-                checkChar(input, 0, L_ALPHA, H_ALPHA, "scheme");
-                checkChars(input, 1, colon, L_SCHEME, H_SCHEME, "scheme");
-                scheme = input.substring(0, colon);
-                p = colon + 1;
+            int pathStart = start;
+            if (p == start && p + 1 < n
+                    && input.charAt(p) == '/' && input.charAt(p + 1) == '/') {
+                pathStart = p = parseAuthority(p + 2, n);
+                if (p < 0)
+                    return false;
+            }
+            p = scan(input, p, n, CharClass.PATH);
+            if (p < n) {
+                char c = input.charAt(p);
+                if (c != '?' && c != '#')
+                    return failIllegal(p, CharClass.PATH, "path");
             }
-            boolean hasQuery = qMark != n;
-            int hierEnd = hasQuery ? qMark : sharp;
-            parseHierPart(p, hierEnd);
-
-            if (hasQuery) { // query available
-                p = qMark + 1;
-                checkChars(input, p, sharp, L_QUERY_FRAGMENT, H_QUERY_FRAGMENT, "query");
-                encodedQuery = input.substring(p, sharp);
+            set(PATH, pathStart, p);
+
+            if (p < n && input.charAt(p) == '?') {
+                int q = scan(input, ++p, n, CharClass.QUERY_FRAGMENT);
+                if (q < n && input.charAt(q) != '#')
+                    return failIllegal(q, CharClass.QUERY_FRAGMENT, "query");
+                set(QUERY, p, q);
+                p = q;
             }
-            if (sharp != n) { // fragment available
-                p = sharp + 1;
-                checkChars(input, p, n, L_QUERY_FRAGMENT, H_QUERY_FRAGMENT, "fragment");
-                encodedFragment = input.substring(p, n);
+            if (p < n) { // fragment available
+                int q = scan(input, ++p, n, CharClass.QUERY_FRAGMENT);
+                if (q < n)
+                    return failIllegal(q, CharClass.QUERY_FRAGMENT, "fragment");
+                set(FRAGMENT, p, n);
             }
+            return true;
         }
 
-        // Parses the hier-part
-        private void parseHierPart(int start, int n) {
+        // Parses the authority and returns the end of it,
+        // or -1 if failed without throwing.
+        // Errors are reported in the order of userinfo, port and host.
+        private int parseAuthority(int start, int n) {
+            int at = -1; // first "@"
+            int colon = -1; // last ":" in host and port, not followed by "]"
+            int userInfoErr = -1; // first illegal char in userinfo
+            int hostErr = -1; // first illegal char in host, if not an IP literal
+            int portErr = -1; // first non-digit after the colon
+
             int p = start;
-            if (at(p, n, '/') && at(p + 1, n, '/')) {
-                p += 2;
-                int authEnd = scan(input, p, n, '/');
-                parseAuthority(p, authEnd);
-                p = authEnd;
+            for (; p < n; p++) {
+                char c = input.charAt(p);
+                if (c == '/' || c == '?' || c == '#')
+                    break;
+                if (c == '@' && at < 0) {
+                    // What is before belongs to userinfo
+                    at = p;
+                    colon = -1;
+                    hostErr = -1;
+                    continue;
+                }
+                if (c == ':') {
+                    colon = p;
+                    portErr = -1;
+                } else if (c == ']') {
+                    colon = -1;
+                } else if (portErr < 0 && (c < '0' || c > '9')) {
+                    portErr = p;
+                }
+                if (!CharClass.REG_NAME.matches(c)
+                        && (c != '%' || !isPctEncoded(input, p, n))) {
+                    if (hostErr < 0)
+                        hostErr = p;
+                    if (userInfoErr < 0 && at < 0 && c != ':')
+                        userInfoErr = p;
+                }
             }
-            checkChars(input, p, n, L_PATH, H_PATH, "path");
-            encodedPath = input.substring(p, n);
-        }
 
-        // Parses the authority
-        private void parseAuthority(int start, int n) {
-            int p = start;
-            int at = scan(input, p, n, '@');
-            if (at != n) {
-                checkChars(input, p, at, L_USERINFO, H_USERINFO, "userinfo");
-                encodedUserInfo = input.substring(p, at);
-                p = at + 1;
+            int hostStart = start;
+            if (at >= 0) {
+                if (userInfoErr >= 0) {
+                    failIllegal(userInfoErr, CharClass.USERINFO, "userinfo");
+                    return -1;
+                }
+                set(USER_INFO, start, at);
+                hostStart = at + 1;
             }
-            int colon = scanBack(n - 1, p, ':', ']');
+            int hostEnd = p;
             if (colon >= 0) {
-                if (colon != n - 1) {
-                    checkChars(input, colon + 1, n, L_DIGIT, H_DIGIT, "port");
-                    port = Integer.parseInt(input.substring(colon + 1, n));
+                if (colon != p - 1) {
+                    if (portErr >= 0) {
+                        fail("Illegal character in port", portErr);
+                        return -1;
+                    }
+                    // Parses the digits in place, with no string created,
+                    // failing on the range only after the host is checked
+                    int port = 0;
+                    for (int i = colon + 1; i < p; i++) {
+                        port = port * 10 + (input.charAt(i) - '0');
+                        if (port > 65535) {
+                            port = -1;
+                            break;
+                        }
+                    }
+                    UriImpl.this.port = port;
                 }
-                n = colon;
+                hostEnd = colon;
             }
-            if (at(p, n, '[') && at(n - 1, n, ']')) {
-                checkIpv6Address(input, p + 1, n - 1, true);
-            } else {
-                checkChars(input, p, n, L_REG_NAME, H_REG_NAME, "host");
+            if (hostEnd - hostStart >= 2 && input.charAt(hostStart) == '['
+                    && input.charAt(hostEnd - 1) == ']') {
+                if (checkIpv6Address(input, hostStart + 1, hostEnd - 1,
+                        true, this::fail) == FAILED)
+                    return -1;
+            } else if (hostErr >= 0 && hostErr < hostEnd) {
+                failIllegal(hostErr, CharClass.REG_NAME, "host");
+                return -1;
+            }
+            if (colon >= 0 && colon != p - 1 && UriImpl.this.port < 0) {
+                fail("Port out of range", colon + 1);
+                return -1;
             }
-            encodedHost = input.substring(p, n);
+            set(HOST, hostStart, hostEnd);
+            return p;
         }
     }
+
+    private static final class Values {
+        String scheme;
+        String encodedUserInfo;
+        String encodedHost;
+        String encodedPath;
+        String encodedQuery;
+        String encodedFragment;
+        String userInfo;
+        String host;
+        String path;
+        String fragment;
+        PathSegments pathSegments;
+        QueryParameters queryParameters;
+    }
 }
@@ -0,0 +1,235 @@
+package cn.yescallop.fluenturi;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reader of files with a URI-reference on each line, which maps the file
+ * into memory and parses each line from the mapped bytes as in
+ * {@link Uri#from(byte[], int, int)}, without throwing if a line
+ * violates RFC 3986.
+ * <p>
+ * Lines are terminated by a line feed ("\n"), which may be preceded by
+ * a carriage return ("\r"). A file ending without a line terminator
+ * has its last line read all the same.
+ * <p>
+ * Spliterators created by a reader split on line boundaries,
+ * and thus are suitable for parallel streams.
+ *
+ * @author Scallop Ye
+ */
+public final class UriReader implements Closeable {
+
+    // Default size of each mapped region, larger only if a line does not fit into it
+    private static final int WINDOW = 1 << 26;
+    // Ranges shorter than this are not split
+    private static final int MIN_SPLIT = 1 << 16;
+
+    private final FileChannel channel;
+    private final long size;
+    private final int windowSize;
+
+    // Creates a reader mapping regions of the given size
+    UriReader(FileChannel channel, int windowSize) throws IOException {
+        if (windowSize <= 0)
+            throw new IllegalArgumentException("Non-positive window size");
+        this.channel = channel;
+        this.windowSize = windowSize;
+        size = channel.size();
+    }
+
+    /**
+     * Opens a reader of the given file.
+     *
+     * @param path the path to the file
+     * @return the reader
+     * @throws IOException if an I/O error occurs
+     */
+    public static UriReader open(Path path) throws IOException {
+        return new UriReader(FileChannel.open(path, StandardOpenOption.READ), WINDOW);
+    }
+
+    /**
+     * Creates a spliterator over the lines, each being parsed into
+     * a {@link ParseResult} holding either a Uri or the reason of failure.
+     * <p>
+     * An {@link IOException} during traversal is rethrown
+     * as an {@link UncheckedIOException}.
+     *
+     * @return the spliterator
+     */
+    public Spliterator<ParseResult> spliterator() {
+        return new LineSpliterator(0, size);
+    }
+
+    /**
+     * Creates a stream over the lines.
+     *
+     * @param parallel whether the stream is parallel
+     * @return the stream
+     * @see #spliterator()
+     */
+    public Stream<ParseResult> stream(boolean parallel) {
+        return StreamSupport.stream(spliterator(), parallel);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Finds the start of the first line in [from, to), or returns -1 if not found
+    private long nextLineStart(long from, long to) {
+        ByteBuffer buf = ByteBuffer.allocate(8192);
+        long p = from - 1;
+        try {
+            while (p < to - 1) {
+                buf.clear();
+                int n = channel.read(buf, p);
+                if (n <= 0)
+                    return -1;
+                for (int i = 0; i < n; i++) {
+                    if (buf.get(i) == '\n') {
+                        long start = p + i + 1;
+                        return start < to ? start : -1;
+                    }
+                }
+                p += n;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return -1;
+    }
+
+    // Spliterator over the lines starting in [pos, to)
+    private final class LineSpliterator implements Spliterator<ParseResult> {
+
+        private long pos;
+        private final long to;
+
+        private MappedByteBuffer window;
+        private long windowStart;
+        // Chars of the bytes in the window, which lines are parsed from in place
+        private WindowChars chars;
+
+        private LineSpliterator(long from, long to) {
+            pos = from;
+            this.to = to;
+        }
+
+        // Maps a region starting at pos, with at least the given length
+        private void map(long minLen) {
+            long len = Math.min(Math.max(windowSize, minLen), size - pos);
+            if (len > Integer.MAX_VALUE)
+                len = Integer.MAX_VALUE;
+            try {
+                window = channel.map(FileChannel.MapMode.READ_ONLY, pos, len);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            windowStart = pos;
+            chars = new WindowChars(window);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super ParseResult> action) {
+            if (pos >= to)
+                return false;
+            if (window == null || pos < windowStart
+                    || pos >= windowStart + window.limit())
+                map(0);
+
+            int start = (int) (pos - windowStart);
+            int limit = window.limit();
+            int end = start;
+            while (true) {
+                if (end == limit) {
+                    if (windowStart + limit == size)
+                        break;
+                    if (start == 0 && limit == Integer.MAX_VALUE)
+                        throw new IllegalStateException("Line too long");
+                    // The line does not fit into the window
+                    map(2L * (limit - start));
+                    end -= start;
+                    start = 0;
+                    limit = window.limit();
+                    continue;
+                }
+                if (window.get(end) == '\n')
+                    break;
+                end++;
+            }
+            pos = windowStart + end + 1;
+
+            if (end != start && window.get(end - 1) == '\r')
+                end--;
+            // Validates the line in the window, copying it only if it is legal
+            action.accept(UriImpl.tryParseBytes(chars, start, end));
+            return true;
+        }
+
+        @Override
+        public Spliterator<ParseResult> trySplit() {
+            long from = pos;
+            if (to - from < MIN_SPLIT)
+                return null;
+            long mid = nextLineStart(from + ((to - from) >>> 1), to);
+            if (mid < 0)
+                return null;
+            pos = mid;
+            return new LineSpliterator(from, mid);
+        }
+
+        @Override
+        public long estimateSize() {
+            return to - pos;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL | IMMUTABLE;
+        }
+    }
+
+    // Chars of the bytes in a mapped region, each byte being treated
+    // as an ISO-8859-1 character as in AsciiString
+    private static final class WindowChars implements CharSequence {
+
+        private final ByteBuffer buf;
+
+        private WindowChars(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int length() {
+            return buf.limit();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (buf.get(index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return AsciiString.of(this, start, end).toString();
+        }
+
+        @Override
+        public String toString() {
+            return subSequence(0, length()).toString();
+        }
+    }
+}
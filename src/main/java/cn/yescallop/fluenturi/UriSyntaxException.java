@@ -3,11 +3,18 @@ package cn.yescallop.fluenturi;
 /**
  * Thrown if an input string could not be parsed as a
  * URI reference or component.
+ * <p>
+ * Stack traces are not captured if the system property
+ * {@code cn.yescallop.fluenturi.stacklessSyntaxException} is set to "true".
  *
  * @author Scallop Ye
+ * @see Uri#tryParse(String)
  */
 public class UriSyntaxException extends IllegalArgumentException {
 
+    private static final boolean STACKLESS =
+            Boolean.getBoolean("cn.yescallop.fluenturi.stacklessSyntaxException");
+
     private final String input;
     private final String reason;
     private final int index;
@@ -35,6 +42,11 @@ public class UriSyntaxException extends IllegalArgumentException {
         return index;
     }
 
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return STACKLESS ? this : super.fillInStackTrace();
+    }
+
     @Override
     public String getMessage() {
         return reason + " at index " + index + ": " + input;
@@ -2,6 +2,11 @@ package cn.yescallop.fluenturi;
 
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
@@ -54,9 +59,11 @@ public class CharUtilsTest {
         String raw = "😃a 测试1`~!@#$%^&+=";
         String s = encode(raw, L_QUERY_FRAGMENT, H_QUERY_FRAGMENT);
         assertEquals("%F0%9F%98%83a%20%E6%B5%8B%E8%AF%951%60~!@%23$%25%5E&+=", s);
+        assertEquals(s, encode(raw, CharClass.QUERY_FRAGMENT));
         assertEquals(raw, decode(s.toLowerCase()));
         s = encode("&+= ", L_QUERY_PARAM, H_QUERY_PARAM, true);
         assertEquals("%26%2B%3D+", s);
+        assertEquals(s, encode("&+= ", CharClass.QUERY_PARAM, true));
         assertEquals("&+= ", decode(s, true));
         s = decode("a+b+c+d+e", true);
         assertEquals("a b c d e", s);
@@ -64,6 +71,111 @@ public class CharUtilsTest {
         assertThrows(IllegalArgumentException.class,
                 () -> decode("%EX"),
                 "Malformed percent-encoded octet");
+        assertEquals("Malformed percent-encoded octet", assertThrows(
+                IllegalArgumentException.class, () -> decode("a%")).getMessage());
+        assertEquals("Malformed percent-encoded octet", assertThrows(
+                IllegalArgumentException.class, () -> decode("a%E")).getMessage());
+    }
+
+    @Test
+    public void testDecodeMalformed() {
+        String s = "abc";
+        assertSame(s, decode(s));
+        // Each malformed sequence is replaced by U+FFFD as CharsetDecoder does.
+        assertEquals("\uFFFDa", decode("%80a"));
+        assertEquals("\uFFFD\uFFFD", decode("%C0%80"));
+        assertEquals("\uFFFDA", decode("%E6%B5A"));
+        assertEquals("\uFFFD", decode("%E6%B5"));
+        assertEquals("\uFFFD\uFFFD", decode("%E0%80"));
+        assertEquals("\uFFFD", decode("%ED%A0%80"));
+        assertEquals("\uFFFD\uFFFD\uFFFD", decode("%F4%90%80"));
+        assertEquals("\uFFFD+\uFFFD", decode("%F0%9F%98+%83"));
+        assertEquals("\uFFFD \uFFFD", decode("%F0%9F%98+%83", true));
+        assertEquals("\uD83D\uDE03\uFFFD", decode("%F0%9F%98%83%FF"));
+    }
+
+    @Test
+    public void testDecodeToBytes() {
+        assertArrayEquals(new byte[]{(byte) 0xFF, 0, ' ', '+', 'a'},
+                decodeToBytes("%ff%00+%2Ba", true));
+        assertArrayEquals(new byte[]{'+'}, decodeToBytes("+", false));
+        assertArrayEquals("测😃\uFFFD".getBytes(StandardCharsets.UTF_8),
+                decodeToBytes("测😃\uD800", false));
+        assertArrayEquals(new byte[]{'b', (byte) 0x80}, decodeToBytes("ab%80c", 1, 5, false));
+        assertThrows(IllegalArgumentException.class, () -> decodeToBytes("%8", false));
+        assertThrows(IndexOutOfBoundsException.class, () -> decodeToBytes("a", 0, 2, false));
+
+        ByteBuffer buf = ByteBuffer.allocate(8);
+        buf.put((byte) 1);
+        assertEquals(3, decodeInto(buf, "%FEa+", true));
+        assertEquals(4, buf.position());
+        assertArrayEquals(new byte[]{1, (byte) 0xFE, 'a', ' '}, Arrays.copyOf(buf.array(), 4));
+        ByteBuffer direct = ByteBuffer.allocateDirect(2);
+        assertEquals(2, decodeInto(direct, "%FE%FF", false));
+        assertEquals((byte) 0xFF, direct.get(1));
+        assertThrows(BufferOverflowException.class, () -> decodeInto(direct, "a", false));
+        assertThrows(BufferOverflowException.class, () -> decodeInto(buf, "%00%00%00%00%00", false));
+        assertEquals(4, buf.position());
+    }
+
+    @Test
+    public void testEncodeTo() throws IOException {
+        assertFalse(needsEncoding("a/b", CharClass.PATH));
+        assertTrue(needsEncoding("a?b", CharClass.PATH));
+        assertTrue(needsEncoding("a%b", CharClass.PATH));
+        assertTrue(needsEncoding("测试", CharClass.PATH));
+
+        String s = "a=b c测";
+        StringBuilder sb = new StringBuilder("k=");
+        assertSame(sb, encodeTo(sb, s, CharClass.QUERY_PARAM, true));
+        assertEquals("k=a%3Db+c%E6%B5%8B", sb.toString());
+
+        Writer w = new StringWriter();
+        encodeTo(w, new StringBuilder(s), CharClass.QUERY_PARAM, false);
+        assertEquals("a%3Db%20c%E6%B5%8B", w.toString());
+
+        // Surrogate pairs, and unpaired surrogates replaced by U+FFFD
+        assertEquals("%F0%9F%98%83", encode("\uD83D\uDE03", CharClass.PATH));
+        assertEquals("%EF%BF%BDa%EF%BF%BD", encode("\uD83Da\uDE03", CharClass.PATH));
+        assertEquals("a%EF%BF%BD", encode("a\uD83D", CharClass.PATH));
+        assertEquals("%C2%80%DF%BF%E0%A0%80%EF%BF%BF%F4%8F%BF%BF",
+                encode("\u0080\u07FF\u0800\uFFFF\uDBFF\uDFFF", CharClass.PATH));
+
+        String raw = "abc";
+        assertSame(raw, encode(raw, CharClass.PATH));
+        assertThrows(IllegalArgumentException.class,
+                () -> encodeTo(new StringBuilder(), "a", CharClass.SCHEME, false));
+    }
+
+    @Test
+    public void testScan() {
+        char[] ca = new char[21];
+        for (char illegal : new char[]{'<', '\0', '\u00E9', '%'}) {
+            for (int i = 0; i < ca.length; i++) {
+                Arrays.fill(ca, 'z');
+                ca[i] = illegal;
+                String s = new String(ca);
+                assertEquals(i, scan(s, 0, s.length(), CharClass.PATH));
+                assertEquals(s.length(), scan(s, i + 1, s.length(), CharClass.PATH));
+            }
+        }
+        String s = "%41%42a%4";
+        assertEquals(7, scan(s, 0, s.length(), CharClass.PATH));
+        assertEquals(0, scan(s, 0, s.length(), CharClass.SCHEME));
+    }
+
+    @Test
+    public void testCharClass() {
+        for (char c = 0; c < 256; c++) {
+            assertEquals(c != 0 && c < 64 && ((1L << c) & L_PATH) != 0
+                            || c >= 64 && c < 128 && ((1L << (c - 64)) & H_PATH) != 0,
+                    CharClass.PATH.matches(c));
+        }
+        assertSame(CharClass.QUERY_PARAM, CharClass.of(L_QUERY_PARAM, H_QUERY_PARAM));
+        assertTrue(CharClass.USERINFO.allowsPctEncoded());
+        assertFalse(CharClass.SCHEME.allowsPctEncoded());
+        assertThrows(IllegalArgumentException.class,
+                () -> encode("a", CharClass.SCHEME));
     }
 
     @Test
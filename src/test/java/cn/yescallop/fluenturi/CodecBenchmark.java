@@ -0,0 +1,76 @@
+package cn.yescallop.fluenturi;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of percent-encoding and decoding.
+ *
+ * @author Scallop Ye
+ * @see ParseBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    private final String ascii = "search terms & more: 100% free";
+    private final String unicode = "搜索词 und Größe 😃 ok";
+    private final String encodedAscii = CharUtils.encode(ascii, CharClass.QUERY_PARAM, true);
+    private final String encodedUnicode = CharUtils.encode(unicode, CharClass.QUERY_PARAM, true);
+    // Form body of 64 KiB
+    private final byte[] form;
+
+    public CodecBenchmark() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < 65536; i++)
+            sb.append("field").append(i).append('=').append(encodedUnicode).append('&');
+        form = sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Benchmark
+    public String encodeAscii() {
+        return CharUtils.encode(ascii, CharClass.QUERY_PARAM, true);
+    }
+
+    @Benchmark
+    public String encodeUnicode() {
+        return CharUtils.encode(unicode, CharClass.QUERY_PARAM, true);
+    }
+
+    @Benchmark
+    public String decodeAscii() {
+        return CharUtils.decode(encodedAscii, true);
+    }
+
+    @Benchmark
+    public String decodeUnicode() {
+        return CharUtils.decode(encodedUnicode, true);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int decodeForm() {
+        int[] count = new int[1];
+        FormDecoder d = new FormDecoder(4096, (n, v) -> count[0] += v.length());
+        d.decode(form, 0, form.length);
+        d.finish();
+        return count[0];
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int decodeFormAsQuery() {
+        int count = 0;
+        String s = "?" + new String(form, StandardCharsets.UTF_8);
+        for (List<String> values : Uri.from(s).queryParameters().values())
+            count += values.get(0).length();
+        return count;
+    }
+}
@@ -0,0 +1,106 @@
+package cn.yescallop.fluenturi;
+
+import org.junit.jupiter.api.Test;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Scallop Ye
+ */
+public class FootprintTest {
+
+    // 60 chars
+    private static final String URL = "https://www.example.com:8080/path/to/page.html?id=42&lang=en";
+
+    // Bytes retained by a Uri, excluding its input string
+    private static long retainedSize(Uri u, Object input) {
+        return GraphLayout.parseInstance(u).totalSize()
+                - GraphLayout.parseInstance(input).totalSize();
+    }
+
+    // Layout of a Uri holding each component in a String of its own
+    @SuppressWarnings("unused")
+    private static final class StringFields {
+        private final String scheme;
+        private final String userInfo;
+        private final String host;
+        private final int port;
+        private final String path;
+        private final String query;
+        private final String fragment;
+
+        StringFields(Uri u) {
+            scheme = new String(u.scheme());
+            userInfo = u.encodedUserInfo();
+            host = new String(u.encodedHost());
+            port = u.port();
+            path = new String(u.encodedPath());
+            query = new String(u.encodedQuery());
+            fragment = u.encodedFragment();
+        }
+    }
+
+    @Test
+    public void testFootprint() {
+        assertEquals(60, URL.length());
+        Uri u = Uri.from(URL);
+        // The instance and its packed offsets only
+        long parsed = retainedSize(u, URL);
+        // Measured against the same components held in String fields
+        // on this VM, as sizes vary with compressed oops
+        long reference = GraphLayout.parseInstance(new StringFields(u)).totalSize();
+        assertTrue(parsed * 3 <= reference, "Retained " + parsed + " of " + reference + " bytes");
+
+        // Component strings are attached when got
+        u.host();
+        u.path();
+        assertTrue(retainedSize(u, URL) > parsed);
+
+        // A built Uri is backed by a single string as well
+        Uri b = Uri.newBuilder()
+                .scheme("https").host("www.example.com").port(8080)
+                .path("/path/to/page.html").encodedQuery("id=42&lang=en")
+                .build();
+        assertEquals(URL, b.toString());
+        assertEquals(parsed, retainedSize(b, b.toString()));
+    }
+
+    @Test
+    public void testCompact() {
+        Uri u = Uri.from(URL);
+        Uri c = u.compact();
+        assertSame(c, c.compact());
+        assertEquals(u, c);
+        assertEquals(u.hashCode(), c.hashCode());
+        assertEquals(URL, c.toString());
+        assertEquals(u.encodedQuery(), c.encodedQuery());
+
+        // Encoded components are not retained
+        long size = GraphLayout.parseInstance(c).totalSize();
+        c.encodedPath();
+        c.encodedQuery();
+        assertEquals(size, GraphLayout.parseInstance(c).totalSize());
+        assertTrue(size < GraphLayout.parseInstance(u).totalSize(),
+                "Retained " + size + " bytes");
+    }
+
+    @Test
+    public void testLongSource() {
+        StringBuilder sb = new StringBuilder("http://a/?");
+        while (sb.length() < 0x10000)
+            sb.append("k=v&");
+        String s = sb.toString();
+        Uri u = Uri.from(s);
+        assertEquals("a", u.host());
+        assertEquals(s.substring(10), u.encodedQuery());
+        assertNull(u.fragment());
+
+        byte[] b = (s + "#f").getBytes(StandardCharsets.US_ASCII);
+        u = Uri.from(b, 0, b.length);
+        assertEquals("f", u.fragment());
+        assertEquals(s.substring(10), u.encodedQuery());
+    }
+}
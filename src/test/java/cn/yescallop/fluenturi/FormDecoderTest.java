@@ -0,0 +1,119 @@
+package cn.yescallop.fluenturi;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Scallop Ye
+ */
+public class FormDecoderTest {
+
+    private static final String BODY = "a=1&&b&c+d=x%20y%26z=&=&%E9%94%AE=%E6%B5%8B&e=%F0%9F%98";
+    private static final List<String> EXPECTED = Arrays.asList(
+            "a=1", "b", "c d=x y&z=", "=", "键=测", "e=�");
+
+    @Test
+    public void testDecode() throws IOException {
+        byte[] body = BODY.getBytes(StandardCharsets.US_ASCII);
+        List<String> res = new ArrayList<>();
+        FormDecoder d = new FormDecoder(64, (n, v) -> res.add(v == null ? n : n + '=' + v));
+
+        // Fed byte by byte, across escape sequences
+        for (int i = 0; i < body.length; i++)
+            d.decode(body, i, 1);
+        d.finish();
+        assertIterableEquals(EXPECTED, res);
+
+        // The decoder is reused after finishing
+        res.clear();
+        d.decode(ByteBuffer.wrap(body));
+        d.finish();
+        assertIterableEquals(EXPECTED, res);
+
+        res.clear();
+        d.decode(new ByteArrayInputStream(body));
+        assertIterableEquals(EXPECTED, res);
+
+        res.clear();
+        d.decode(Channels.newChannel(new ByteArrayInputStream(body)));
+        assertIterableEquals(EXPECTED, res);
+
+        // Same as decoding the chars as a query
+        res.clear();
+        d.decode(new ByteArrayInputStream("k=v+1&k=v%262&k2&=".getBytes(StandardCharsets.US_ASCII)));
+        assertIterableEquals(Arrays.asList("k=v 1", "k=v&2", "k2", "="), res);
+    }
+
+    @Test
+    public void testSplit() {
+        List<String> res = new ArrayList<>();
+        FormDecoder d = new FormDecoder(8, (n, v) -> res.add(n + '|' + v));
+        byte[] body = "a=b=c&x==&%3D=y&%C3=%A9=".getBytes(StandardCharsets.US_ASCII);
+        d.decode(body, 0, body.length);
+        d.finish();
+        // Split at the last '=' as in Uri#queryParameters()
+        assertIterableEquals(Arrays.asList("a=b|c", "x=|", "=|y", "\uFFFD=\uFFFD|"), res);
+    }
+
+    @Test
+    public void testLimits() {
+        FormDecoder d = new FormDecoder(3, (n, v) -> {
+        });
+        byte[] ok = "abc=%20&abc".getBytes(StandardCharsets.US_ASCII);
+        d.decode(ok, 0, ok.length);
+        d.finish();
+
+        assertIAE(() -> new FormDecoder(3, (n, v) -> {
+        }).decode(bytes("abcd"), 0, 4), "Form field too long");
+        assertIAE(() -> new FormDecoder(3, (n, v) -> {
+        }).decode(bytes("a=%20%20"), 0, 8), "Form field too long");
+        // The name is what is before the last '='
+        assertIAE(() -> new FormDecoder(3, (n, v) -> {
+        }).decode(bytes("ab=cd="), 0, 6), "Form field too long");
+        // No overflow in growing the buffer with a huge maximum
+        for (int max : new int[]{Integer.MAX_VALUE, 1 << 30}) {
+            List<String> res = new ArrayList<>();
+            FormDecoder big = new FormDecoder(max, (n, v) -> res.add(n + '|' + v));
+            byte[] body = new byte[10000];
+            Arrays.fill(body, (byte) 'a');
+            body[5000] = '=';
+            big.decode(body, 0, body.length);
+            big.finish();
+            assertEquals(1, res.size());
+            assertEquals(10000, res.get(0).length());
+        }
+        assertIAE(() -> new FormDecoder(0, (n, v) -> {
+        }), "Non-positive maximum field length");
+    }
+
+    @Test
+    public void testMalformed() {
+        assertIAE(() -> new FormDecoder(16, (n, v) -> {
+        }).decode(bytes("%E&"), 0, 3), "Malformed percent-encoded octet");
+
+        FormDecoder d = new FormDecoder(16, (n, v) -> {
+        });
+        d.decode(bytes("a=%4"), 0, 4);
+        assertIAE(d::finish, "Malformed percent-encoded octet");
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static void assertIAE(Executable e, String message) {
+        IllegalArgumentException t = assertThrows(IllegalArgumentException.class, e);
+        assertEquals(message, t.getMessage());
+    }
+}
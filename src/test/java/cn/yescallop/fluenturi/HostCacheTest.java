@@ -0,0 +1,69 @@
+package cn.yescallop.fluenturi;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Scallop Ye
+ */
+public class HostCacheTest {
+
+    @Test
+    public void testConversions() {
+        HostCache c = new HostCache(16);
+        assertEquals("xn--h28h.com", c.toAscii("😃.com"));
+        assertEquals("xn--h28h.com", c.toAscii("😃.com"));
+        assertEquals("😃.com", c.toUnicode("xn--h28h.com"));
+        assertEquals(1, c.hitCount());
+        assertEquals(2, c.missCount());
+        assertEquals(2, c.size());
+
+        // Failures are not cached
+        String tooLong = new String(new char[64]).replace('\0', 'a');
+        assertThrows(IllegalArgumentException.class, () -> c.toAscii(tooLong));
+        assertThrows(IllegalArgumentException.class, () -> c.toAscii(tooLong));
+        assertEquals(2, c.size());
+
+        c.clear();
+        assertEquals(0, c.size());
+        assertEquals(1, c.hitCount());
+    }
+
+    @Test
+    public void testEviction() {
+        AtomicInteger loads = new AtomicInteger();
+        ClockCache<Integer, Integer> c = new ClockCache<>(3);
+        for (int i = 0; i < 3; i++)
+            c.get(i, k -> loads.incrementAndGet());
+        // 0 is given a second chance, so 1 is evicted for 3.
+        c.get(0, k -> loads.incrementAndGet());
+        c.get(3, k -> loads.incrementAndGet());
+        assertEquals(3, c.size());
+        assertEquals(4, loads.get());
+        c.get(0, k -> loads.incrementAndGet());
+        assertEquals(4, loads.get());
+        c.get(1, k -> loads.incrementAndGet());
+        assertEquals(5, loads.get());
+
+        ClockCache<Integer, Integer> disabled = new ClockCache<>(0);
+        disabled.get(0, k -> k);
+        disabled.get(0, k -> k);
+        assertEquals(0, disabled.size());
+        assertEquals(2, disabled.missCount());
+    }
+
+    @Test
+    public void testConcurrent() {
+        ClockCache<Integer, Integer> c = new ClockCache<>(64);
+        IntStream.range(0, 100_000).parallel().forEach(i -> {
+            int k = i % 100;
+            assertEquals(k * 2, c.get(k, x -> x * 2));
+        });
+        assertEquals(64, c.size());
+        assertEquals(100_000, c.hitCount() + c.missCount());
+    }
+}
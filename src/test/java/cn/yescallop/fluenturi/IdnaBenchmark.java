@@ -0,0 +1,72 @@
+package cn.yescallop.fluenturi;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.net.IDN;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of IDNA host conversions, compared with {@link java.net.IDN}.
+ * <p>
+ * A non-ASCII label is converted by java.net.IDN in either case,
+ * so only hosts in ASCII are expected to be much faster.
+ *
+ * @author Scallop Ye
+ * @see ParseBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IdnaBenchmark {
+
+    private final String ascii = "www.example-domain.com";
+    private final String unicode = "bücher.münchen.example.com";
+    private final String ace = "xn--bcher-kva.xn--mnchen-3ya.example.com";
+
+    @Benchmark
+    public String toAsciiAscii() {
+        return Idna.toAscii(ascii);
+    }
+
+    @Benchmark
+    public String jdkToAsciiAscii() {
+        String s = IDN.toASCII(ascii, IDN.ALLOW_UNASSIGNED);
+        CharUtils.checkHostname(s);
+        return s;
+    }
+
+    @Benchmark
+    public String toAsciiUnicode() {
+        return Idna.toAscii(unicode);
+    }
+
+    @Benchmark
+    public String jdkToAsciiUnicode() {
+        String s = IDN.toASCII(unicode, IDN.ALLOW_UNASSIGNED);
+        CharUtils.checkHostname(s);
+        return s;
+    }
+
+    @Benchmark
+    public String toUnicodeAscii() {
+        return Idna.toUnicode(ascii);
+    }
+
+    @Benchmark
+    public String jdkToUnicodeAscii() {
+        return IDN.toUnicode(ascii, IDN.ALLOW_UNASSIGNED);
+    }
+
+    @Benchmark
+    public String toUnicodeAce() {
+        return Idna.toUnicode(ace);
+    }
+
+    @Benchmark
+    public String jdkToUnicodeAce() {
+        return IDN.toUnicode(ace, IDN.ALLOW_UNASSIGNED);
+    }
+}
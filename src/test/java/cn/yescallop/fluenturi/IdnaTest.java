@@ -0,0 +1,101 @@
+package cn.yescallop.fluenturi;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.IDN;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Scallop Ye
+ */
+public class IdnaTest {
+
+    private static final String[] HOSTS = {
+            "example.com", "EXAMPLE.com", "bücher.de", "BÜCHER.de",
+            "münchen。example．com", "例子.测试",
+            "😃.com", "straße.de", "ας.gr",
+            "مثال.إختبار",
+            "ＡＢＣ.com", "a\u00ADbü.com", "рф.рф",
+            "àáâãäåæçèé.com",
+            "ನಮಸ್ಕಾರ.in"
+    };
+
+    @Test
+    public void testToAscii() {
+        for (String host : HOSTS) {
+            String expected = IDN.toASCII(host, IDN.ALLOW_UNASSIGNED);
+            assertEquals(expected, Idna.toAscii(host), host);
+        }
+        assertThrows(IllegalArgumentException.class, () -> Idna.toAscii("aü\u2028.com"));
+        assertThrows(IllegalArgumentException.class, () -> Idna.toAscii("a\uE000.com"));
+        assertThrows(IllegalArgumentException.class, () -> Idna.toAscii("a_ü.com"));
+        assertThrows(IllegalArgumentException.class, () -> Idna.toAscii("ü.123"));
+    }
+
+    @Test
+    public void testToUnicode() {
+        for (String host : HOSTS) {
+            String ascii = IDN.toASCII(host, IDN.ALLOW_UNASSIGNED);
+            assertEquals(IDN.toUnicode(ascii, IDN.ALLOW_UNASSIGNED), Idna.toUnicode(ascii), ascii);
+            assertEquals(IDN.toUnicode(host, IDN.ALLOW_UNASSIGNED), Idna.toUnicode(host), host);
+        }
+        // Left as they are if not converted
+        for (String host : new String[]{"xn--.com", "xn--a-.com", "XN--ZZZZZ9", "xn--abc-", "xn--A-0ga"}) {
+            assertEquals(IDN.toUnicode(host, IDN.ALLOW_UNASSIGNED), Idna.toUnicode(host), host);
+        }
+        String s = "example.com";
+        assertSame(s, Idna.toUnicode(s));
+    }
+
+    @Test
+    public void testAgainstIdn() {
+        // Hosts whose nameprep is easy to get wrong without the Unicode 3.2 tables
+        String[] hosts = {"\u2C62.com", "\u1D57\u1D37.com", "\u1E9E.de", "\u2103.com", "\u0130.com"};
+        for (String host : hosts)
+            assertSameAsIdn(host);
+
+        Random r = new Random(42);
+        int[][] ranges = {{0xA0, 0x24F}, {0x370, 0x52F}, {0x1D00, 0x1FFF}, {0x2000, 0x2FFF}, {0xA0, 0xFFFD}};
+        for (int i = 0; i < 20000; i++) {
+            int[] range = ranges[i % ranges.length];
+            StringBuilder sb = new StringBuilder();
+            for (int n = 1 + r.nextInt(4); n > 0; n--) {
+                char c = (char) (range[0] + r.nextInt(range[1] - range[0] + 1));
+                sb.append(Character.isSurrogate(c) ? 'a' : c);
+            }
+            assertSameAsIdn(sb.append(".com").toString());
+        }
+    }
+
+    // Asserts that a host is converted as with IDN, or rejected if IDN rejects it
+    // or if its result is not compliant with DNS
+    private static void assertSameAsIdn(String host) {
+        String expected;
+        try {
+            expected = IDN.toASCII(host, IDN.ALLOW_UNASSIGNED);
+            CharUtils.checkHostname(expected);
+        } catch (IllegalArgumentException e) {
+            assertThrows(IllegalArgumentException.class, () -> Idna.toAscii(host), host);
+            return;
+        }
+        assertEquals(expected, Idna.toAscii(host), host);
+        assertEquals(IDN.toUnicode(expected, IDN.ALLOW_UNASSIGNED), Idna.toUnicode(expected), expected);
+    }
+
+    @Test
+    public void testPunycode() {
+        // Sample strings in Section 7.1, RFC 3492
+        String[][] samples = {
+                {"他们为什么不说中文", "ihqwcrb4cv8a8dqg056pqjye"},
+                {"ひとつ屋根の下2", "2-u9tlzr9756bt3uc0v"},
+                {"-> $1.00 <-", "-> $1.00 <--"},
+                {"3年B組金八先生", "3B-ww4c5e180e575a65lsy2b"}
+        };
+        for (String[] sample : samples)
+            assertEquals(sample[0], Idna.decodePunycode(sample[1], 0));
+        assertNull(Idna.decodePunycode("aü-b", 0));
+        assertNull(Idna.decodePunycode("999999999999", 0));
+    }
+}
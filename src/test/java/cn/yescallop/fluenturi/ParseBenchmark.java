@@ -0,0 +1,99 @@
+package cn.yescallop.fluenturi;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of parsing legal and illegal URI references.
+ * <p>
+ * Benchmarks are run with {@code mvn test-compile exec:exec -Dexec.classpathScope=test
+ * -Dexec.executable=java "-Dexec.args=-cp %classpath org.openjdk.jmh.Main <regex>"}.
+ *
+ * @author Scallop Ye
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+    private final String legal = "http://user@example.com:8080/path/to/resource?k1=v1&k2=v2#frag";
+    // Illegal at the end of the query
+    private final String illegal = "http://user@example.com:8080/path/to/resource?k1=v1&k2=v2<#frag";
+
+    // Tracking URL with a 4 KiB query
+    private final String longQuery;
+    // Form submission with 30 parameters, of which a handler reads 2
+    private final String form;
+
+    public ParseBenchmark() {
+        StringBuilder sb = new StringBuilder("https://example.com/track?");
+        for (int i = 0; sb.length() < 4096; i++)
+            sb.append("utm_param_").append(i).append("=some-value_").append(i).append("%2Fx&");
+        longQuery = sb.toString();
+        sb.setLength(0);
+        sb.append("/submit?");
+        for (int i = 0; i < 30; i++)
+            sb.append("field").append(i).append("=value+").append(i).append("%21&");
+        form = sb.toString();
+    }
+
+    @Benchmark
+    public Uri fromLongQuery() {
+        return Uri.from(longQuery);
+    }
+
+    @Benchmark
+    public Uri fromLegal() {
+        return Uri.from(legal);
+    }
+
+    @Benchmark
+    public Object fromIllegal() {
+        try {
+            return Uri.from(illegal);
+        } catch (UriSyntaxException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public ParseResult tryParseLegal() {
+        return Uri.tryParse(legal);
+    }
+
+    @Benchmark
+    public ParseResult tryParseIllegal() {
+        return Uri.tryParse(illegal);
+    }
+
+    @Benchmark
+    public String lookUpQueryParameters() {
+        Map<String, List<String>> params = Uri.from(form).queryParameters();
+        return params.get("field3").get(0) + params.get("field27").get(0);
+    }
+
+    @Benchmark
+    public String lookUpQueryParameter() {
+        Uri u = Uri.from(form);
+        return u.queryParameter("field3") + u.queryParameter("field27");
+    }
+
+    @Benchmark
+    public int visitQuery() {
+        int[] count = new int[1];
+        Uri.from(longQuery).visitQuery((cs, ns, ne, vs, ve) -> count[0]++);
+        return count[0];
+    }
+
+    @Benchmark
+    public String routePathSegments() {
+        PathSegments segments = Uri.from(legal).pathSegments();
+        return segments.get(0) + segments.get(1);
+    }
+}
@@ -0,0 +1,100 @@
+package cn.yescallop.fluenturi;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Scallop Ye
+ */
+public class UriReaderTest {
+
+    @Test
+    public void testRead() throws IOException {
+        Path file = Files.createTempFile("uris", ".txt");
+        try {
+            Files.write(file, "http://a/b?c#d\r\n\n<\nmailto:a@b.com".getBytes(StandardCharsets.US_ASCII));
+            try (UriReader r = UriReader.open(file)) {
+                Iterator<ParseResult> it = r.stream(false).iterator();
+                assertEquals("http://a/b?c#d", it.next().orElseThrow().toString());
+                assertEquals("", it.next().orElseThrow().toString());
+                ParseResult failure = it.next();
+                assertEquals("<", failure.input());
+                assertEquals("Illegal character in path", failure.reason());
+                assertEquals("a@b.com", it.next().orElseThrow().encodedPath());
+                assertFalse(it.hasNext());
+            }
+
+            Files.write(file, new byte[0]);
+            try (UriReader r = UriReader.open(file)) {
+                assertEquals(0, r.stream(false).count());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testParallel() throws IOException {
+        Path file = Files.createTempFile("uris", ".txt");
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 100000; i++) {
+                if (i % 10 == 0) sb.append("//<");
+                else sb.append("http://example.com/").append(i);
+                sb.append('\n');
+            }
+            Files.write(file, sb.toString().getBytes(StandardCharsets.US_ASCII));
+            try (UriReader r = UriReader.open(file)) {
+                List<ParseResult> results = r.stream(true).collect(Collectors.toList());
+                assertEquals(100000, results.size());
+                for (int i = 0; i < results.size(); i++) {
+                    ParseResult res = results.get(i);
+                    if (i % 10 == 0) assertFalse(res.isSuccess());
+                    else assertEquals("/" + i, res.uri().encodedPath());
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testSmallWindow() throws IOException {
+        Path file = Files.createTempFile("uris", ".txt");
+        try {
+            // Lines straddling the window, one longer than it,
+            // and a CRLF split across a boundary
+            String content = "a:b\nhttp://example.com/long/path?q#f\n<>\n\nc:d\r\n//e\r\nx:%4";
+            Files.write(file, content.getBytes(StandardCharsets.US_ASCII));
+            List<String> expected = Arrays.asList("a:b", "http://example.com/long/path?q#f",
+                    "<>", "", "c:d", "//e", "x:%4");
+            for (int window = 1; window <= 8; window++) {
+                try (UriReader r = new UriReader(FileChannel.open(file, StandardOpenOption.READ), window)) {
+                    List<ParseResult> results = r.stream(false).collect(Collectors.toList());
+                    assertEquals(expected.size(), results.size());
+                    for (int i = 0; i < results.size(); i++) {
+                        ParseResult res = results.get(i);
+                        assertEquals(expected.get(i), res.isSuccess() ? res.uri().toString() : res.input());
+                    }
+                    assertEquals("Illegal character in path", results.get(2).reason());
+                    assertEquals("Malformed percent-encoded octet", results.get(6).reason());
+                    assertEquals("/long/path", results.get(1).uri().encodedPath());
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
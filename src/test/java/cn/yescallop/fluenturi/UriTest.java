@@ -3,10 +3,13 @@ package cn.yescallop.fluenturi;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.function.Executable;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -147,6 +150,294 @@ public class UriTest {
         assertEquals(80, u.port());
     }
 
+    @Test
+    public void testParseSlice() {
+        StringBuilder sb = new StringBuilder("<a href=\"").append(ALL).append("\">");
+        Uri u = Uri.from(sb, 9, 9 + ALL.length());
+        assertEquals(ALL, u.toString());
+        assertEquals("/pa th/测/试", u.path());
+
+        // Not affected by changes to the input
+        sb.setLength(0);
+        assertEquals(ALL, u.toString());
+
+        u = Uri.from(CharBuffer.wrap("xx//[::1]:80/a"), 2, 14);
+        assertEquals("::1", u.host());
+        assertEquals(80, u.port());
+
+        // Index relative to the range
+        try {
+            Uri.from("<<a://[::%0]>>", 2, 12);
+            fail("Exception not thrown");
+        } catch (UriSyntaxException e) {
+            assertEquals("a://[::%0]", e.input());
+            assertEquals("Expected %25", e.reason());
+            assertEquals(7, e.index());
+        }
+        assertThrows(IndexOutOfBoundsException.class, () -> Uri.from("a", 1, 2));
+    }
+
+    @Test
+    public void testParseBytes() {
+        byte[] b = ("  " + ALL + "  ").getBytes(StandardCharsets.US_ASCII);
+        Uri u = Uri.from(b, 2, ALL.length());
+        assertEquals(Uri.from(ALL), u);
+        assertEquals("xn--h28h.com", u.encodedHost());
+        assertEquals("?#", u.fragment());
+
+        // Not affected by changes to the input
+        Arrays.fill(b, (byte) 'a');
+        assertEquals(ALL, u.toString());
+
+        ByteBuffer buf = ByteBuffer.allocateDirect(ALL.length() + 1);
+        buf.put(ALL.getBytes(StandardCharsets.US_ASCII)).put((byte) '/').flip();
+        buf.limit(ALL.length());
+        u = Uri.from(buf);
+        assertEquals(ALL, u.toString());
+        assertEquals(0, buf.position());
+
+        buf = ByteBuffer.wrap(b, 1, 3).slice();
+        b[1] = '/';
+        b[2] = 'a';
+        b[3] = '?';
+        assertEquals("/a", Uri.from(buf).encodedPath());
+
+        assertIAE(() -> Uri.from(new byte[]{'a', (byte) 0xE9}, 0, 2), "Illegal character in path");
+        assertThrows(IndexOutOfBoundsException.class, () -> Uri.from(b, 4, b.length));
+    }
+
+    @Test
+    public void testKnownScheme() {
+        Uri u = Uri.from("https://example.com/");
+        assertSame(Scheme.HTTPS.name(), u.scheme());
+        assertSame(Scheme.HTTPS, u.knownScheme());
+        assertEquals(443, u.knownScheme().defaultPort());
+        assertSame(Scheme.WS.name(), Uri.from("xws:ws://a".getBytes(), 4, 6).scheme());
+
+        u = Uri.from("HTTP://example.com/");
+        assertEquals("HTTP", u.scheme());
+        assertSame(Scheme.HTTP, u.knownScheme());
+
+        assertNull(Uri.from("httpx://a").knownScheme());
+        assertNull(Uri.from("/a").knownScheme());
+        assertNull(Scheme.of("htt"));
+        assertSame(Scheme.FILE, Scheme.of("File"));
+        assertSame(Scheme.MAILTO.name(), Uri.newBuilder().scheme(new String("mailto")).build().scheme());
+    }
+
+    @Test
+    public void testUriCache() {
+        UriCache cache = new UriCache(2);
+        Uri u = Uri.from("http://a/b", cache);
+        assertSame(u, Uri.from("http://a/b", cache));
+        assertSame(u, cache.from(new String("http://a/b")));
+        assertEquals(2, cache.hitCount());
+        assertEquals(1, cache.missCount());
+        assertEquals(2.0 / 3, cache.hitRate());
+
+        assertThrows(UriSyntaxException.class, () -> Uri.from("http://a/<", cache));
+        assertEquals(1, cache.size());
+        Uri.from("/c", cache);
+        Uri.from("/d", cache);
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testWriteTo() throws IOException {
+        String s = "http://a/b?c#d";
+        for (Uri u : new Uri[]{Uri.from(s), Uri.from(s).compact()}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            u.writeTo(out);
+            assertEquals(s, out.toString("US-ASCII"));
+
+            ByteBuffer buf = ByteBuffer.allocate(s.length() + 1);
+            buf.put((byte) '<');
+            u.writeTo(buf);
+            assertEquals(0, buf.remaining());
+            assertEquals('<' + s, new String(buf.array(), StandardCharsets.US_ASCII));
+            assertThrows(BufferOverflowException.class, () -> u.writeTo(ByteBuffer.allocate(4)));
+        }
+    }
+
+    @Test
+    public void testQueryParameters() {
+        Uri u = Uri.from("?b=1&a&b=%32&&c%20d=+&b");
+        Map<String, List<String>> params = u.queryParameters();
+        assertSame(params, u.queryParameters());
+        assertFalse(params.isEmpty());
+        assertIterableEquals(Arrays.asList("1", "2", null), params.get("b"));
+        assertTrue(params.containsKey("c d"));
+        assertNull(params.get("c"));
+        assertNull(params.get(1));
+
+        Map<String, List<String>> expected = new LinkedHashMap<>();
+        expected.put("b", Arrays.asList("1", "2", null));
+        expected.put("a", Collections.singletonList(null));
+        expected.put("c d", Collections.singletonList(" "));
+        assertEquals(expected, params);
+        assertEquals(expected.hashCode(), params.hashCode());
+        assertIterableEquals(expected.keySet(), params.keySet());
+        assertEquals(3, params.size());
+        assertEquals(params.get("b"), params.get("b"));
+
+        assertThrows(UnsupportedOperationException.class, () -> params.put("x", null));
+        assertThrows(UnsupportedOperationException.class, () -> params.get("a").add("x"));
+        assertThrows(UnsupportedOperationException.class, () -> params.keySet().remove("a"));
+
+        // Split at the last '='
+        Map<String, List<String>> split = Uri.from("?a=b=c&%3D==").queryParameters();
+        assertIterableEquals(Collections.singletonList("c"), split.get("a=b"));
+        assertIterableEquals(Collections.singletonList(""), split.get("=="));
+        assertNull(split.get("a"));
+
+        Map<String, List<String>> compact = u.compact().queryParameters();
+        assertEquals(params, compact);
+        assertIterableEquals(Arrays.asList("1", "2", null), compact.get("b"));
+    }
+
+    @Test
+    public void testQueryParameter() {
+        String s = "?b=1&a&b=%32&&c%20d=+&%E9%94%AE=%E6%B5%8B&%41=x&b";
+        for (Uri u : new Uri[]{Uri.from(s), Uri.from(s).compact()}) {
+            assertEquals("1", u.queryParameter("b"));
+            assertIterableEquals(Arrays.asList("1", "2", null), u.queryParameterValues("b"));
+            assertNull(u.queryParameter("a"));
+            assertIterableEquals(Collections.singletonList(null), u.queryParameterValues("a"));
+            assertEquals(" ", u.queryParameter("c d"));
+            assertEquals("测", u.queryParameter("键"));
+            assertEquals("x", u.queryParameter("A"));
+            assertNull(u.queryParameter("c"));
+            assertNull(u.queryParameter("键键"));
+            assertTrue(u.queryParameterValues("").isEmpty());
+        }
+        Uri u = Uri.from("/a");
+        assertNull(u.queryParameter("a"));
+        assertTrue(u.queryParameterValues("a").isEmpty());
+        // Matches a name decoded from a malformed sequence
+        assertEquals("1", Uri.from("?%FF=1").queryParameter("\uFFFD"));
+        assertEquals("", Uri.from("?=").queryParameter(""));
+        // Split at the last '=' as in queryParameters()
+        u = Uri.from("?a=b=c&a=d");
+        assertEquals("c", u.queryParameter("a=b"));
+        assertIterableEquals(Collections.singletonList("d"), u.queryParameterValues("a"));
+        assertArrayEquals(new byte[]{'c'}, u.queryParameterBytes("a=b"));
+    }
+
+    @Test
+    public void testPathSegments() {
+        String s = "/a%20b//%2F/c/?q";
+        for (Uri u : new Uri[]{Uri.from(s), Uri.from(s).compact()}) {
+            PathSegments segments = u.pathSegments();
+            assertSame(segments, u.pathSegments());
+            assertEquals(5, segments.size());
+            assertEquals("a b", segments.get(0));
+            assertSame(segments.get(0), segments.get(0));
+            assertEquals("a%20b", segments.encodedSegment(0));
+            assertEquals("", segments.get(1));
+            assertEquals("/", segments.get(2));
+            assertEquals("%2F", segments.encodedSegment(2));
+            assertEquals("c", segments.get(3));
+            assertEquals("", segments.encodedSegment(4));
+            assertIterableEquals(Arrays.asList("a b", "", "/", "c", ""), segments);
+            assertThrows(IndexOutOfBoundsException.class, () -> segments.get(5));
+            assertThrows(IndexOutOfBoundsException.class, () -> segments.encodedSegment(-1));
+            assertThrows(UnsupportedOperationException.class, () -> segments.add("d"));
+
+            // Encoded segments, cached and never decoded
+            assertSame(segments.encodedSegment(0), segments.encodedSegment(0));
+            assertIterableEquals(Arrays.asList("a%20b", "", "%2F", "c", ""), segments.encodedSegments());
+            assertSame(segments.encodedSegments(), segments.encodedSegments());
+            String path = u.encodedPath();
+            List<String> sliced = new ArrayList<>();
+            for (int i = 0; i < segments.size(); i++)
+                sliced.add(path.substring(segments.segmentStart(i), segments.segmentEnd(i)));
+            assertEquals(segments.encodedSegments(), sliced);
+            assertThrows(IndexOutOfBoundsException.class, () -> segments.segmentStart(5));
+            assertThrows(IndexOutOfBoundsException.class, () -> segments.segmentEnd(-1));
+        }
+        PathSegments rootless = Uri.from("a/b").pathSegments();
+        assertEquals(0, rootless.segmentStart(0));
+        assertEquals(2, rootless.segmentStart(1));
+        assertEquals(3, rootless.segmentEnd(1));
+        assertIterableEquals(Collections.singletonList("a"), Uri.from("a").pathSegments());
+        assertIterableEquals(Collections.singletonList(""), Uri.from("/").pathSegments());
+        assertIterableEquals(Arrays.asList("b", ""), Uri.from("//a/b/").pathSegments());
+        assertTrue(Uri.from("//a").pathSegments().isEmpty());
+    }
+
+    @Test
+    public void testVisitQuery() {
+        String s = "/p?a=1&&b&c%20d=x+y&=&a=&a=b=c";
+        for (Uri u : new Uri[]{Uri.from(s), Uri.from(s).compact()}) {
+            List<String> visited = new ArrayList<>();
+            u.visitQuery((cs, ns, ne, vs, ve) -> visited.add(
+                    CharUtils.decode(cs, ns, ne, true) + (vs < 0 ? "" : "=" + CharUtils.decode(cs, vs, ve, true))));
+            assertIterableEquals(Arrays.asList("a=1", "b", "c d=x y", "=", "a=", "a=b=c"), visited);
+            // Split at the last '='
+            List<String> names = new ArrayList<>();
+            u.visitQuery((cs, ns, ne, vs, ve) -> names.add(cs.subSequence(ns, ne).toString()));
+            assertEquals("a=b", names.get(names.size() - 1));
+        }
+        Uri.from("/p").visitQuery((cs, ns, ne, vs, ve) -> fail());
+        Uri.from("/p?&").visitQuery((cs, ns, ne, vs, ve) -> fail());
+
+        int[] count = new int[1];
+        CharUtils.visitQuery("[k=v&k2]", 1, 7, (cs, ns, ne, vs, ve) -> {
+            assertEquals(count[0] == 0 ? "k" : "k2", cs.subSequence(ns, ne).toString());
+            assertEquals(count[0] == 0 ? 4 : -1, ve);
+            count[0]++;
+        });
+        assertEquals(2, count[0]);
+        assertThrows(IndexOutOfBoundsException.class,
+                () -> CharUtils.visitQuery("a", 0, 2, (cs, ns, ne, vs, ve) -> fail()));
+    }
+
+    @Test
+    public void testTypedQueryParameters() {
+        Uri u = Uri.from("?page=%32%30&limit=-%35&ts=9223372036854775807&neg=%2D1" +
+                "&big=2147483648&debug=TRUE&off=f%41lse&e&bad=1+2&b=yes&z=");
+        assertEquals(20, u.queryParameterAsInt("page", 1));
+        assertEquals(-5, u.queryParameterAsInt("limit", 10));
+        assertEquals(Long.MAX_VALUE, u.queryParameterAsLong("ts", 0));
+        assertEquals(-1, u.queryParameterAsLong("neg", 0));
+        assertEquals(2147483648L, u.queryParameterAsLong("big", 0));
+        // Same message as Integer.parseInt, with the decoded value
+        assertEquals("For input string: \"2147483648\"", assertThrows(
+                NumberFormatException.class, () -> u.queryParameterAsInt("big", 0)).getMessage());
+        assertEquals("For input string: \"-2147483649\"", assertThrows(NumberFormatException.class,
+                () -> Uri.from("?a=%2D2147483649").queryParameterAsInt("a", 0)).getMessage());
+        assertEquals(Integer.MIN_VALUE, Uri.from("?a=-2147483648").queryParameterAsInt("a", 0));
+        assertThrows(NumberFormatException.class, () -> u.queryParameterAsLong("bad", 0));
+        assertThrows(NumberFormatException.class, () -> u.queryParameterAsLong("debug", 0));
+        assertEquals(7, u.queryParameterAsLong("e", 7));
+        assertEquals(7, u.queryParameterAsLong("z", 7));
+        assertEquals(7, u.queryParameterAsInt("z", 7));
+        assertEquals(7, u.queryParameterAsInt("missing", 7));
+        assertEquals(7, Uri.from("/").queryParameterAsInt("page", 7));
+
+        assertTrue(u.queryParameterAsBoolean("debug", false));
+        assertFalse(u.queryParameterAsBoolean("off", true));
+        assertTrue(u.queryParameterAsBoolean("e", true));
+        assertTrue(u.queryParameterAsBoolean("z", true));
+        assertFalse(u.queryParameterAsBoolean("missing", false));
+        assertIAE(() -> u.queryParameterAsBoolean("b", false), "Not a boolean: \"yes\"");
+    }
+
+    @Test
+    public void testQueryParameterBytes() {
+        String s = "?sig=%00%FF%80+&k%201&%E9%94%AE=%E6%B5%8B&&sig=x";
+        for (Uri u : new Uri[]{Uri.from(s), Uri.from(s).compact()}) {
+            assertArrayEquals(new byte[]{0, (byte) 0xFF, (byte) 0x80, ' '},
+                    u.queryParameterBytes("sig"));
+            assertArrayEquals(new byte[0], u.queryParameterBytes("k 1"));
+            assertArrayEquals("测".getBytes(StandardCharsets.UTF_8), u.queryParameterBytes("键"));
+            assertNull(u.queryParameterBytes("k"));
+            assertNull(u.queryParameterBytes(""));
+        }
+        assertNull(Uri.from("/a").queryParameterBytes("a"));
+        assertArrayEquals(new byte[0], Uri.from("?=").queryParameterBytes(""));
+    }
+
     @Test
     public void testResolve() {
         Uri u = Uri.from("http://a/b/c/d;p?q#r");
@@ -256,8 +547,8 @@ public class UriTest {
                 .appendQueryParameter("k", "v&2")
                 .appendQueryParameter("k2", null)
                 .appendQueryParameter("", "")
-                .fragment("#").build();
-        assertEquals("http://u%40@xn--h28h.com:80/fo%20o//bar/?k=v+1&k=v%262&k2&=#%23", u.toString());
+                .fragment("#Az~").build();
+        assertEquals("http://u%40@xn--h28h.com:80/fo%20o//bar/?k=v+1&k=v%262&k2&=#%23Az~", u.toString());
 
         // From encoded components
         u = Uri.newBuilder()
@@ -345,12 +636,72 @@ public class UriTest {
         assertIAE(() -> Uri.from("a://<"), "Illegal character in host");
         // Illegal port
         assertIAE(() -> Uri.from("a://a:-1"), "Illegal character in port");
+        assertIAE(() -> Uri.from("a://a:65536"), "Port out of range");
+        assertIAE(() -> Uri.from("a://a:99999999999"), "Port out of range");
         // Illegal path
         assertIAE(() -> Uri.from("a:<"), "Illegal character in path");
         // Illegal query
         assertIAE(() -> Uri.from("?<"), "Illegal character in query");
         // Illegal fragment
         assertIAE(() -> Uri.from("#<"), "Illegal character in fragment");
+        // Illegal scheme, detected after the first path segment
+        assertIAE(() -> Uri.from("a_%41:"), "Illegal character in scheme");
+        assertIAE(() -> Uri.from("a<b:"), "Illegal character in scheme");
+        assertIAE(() -> Uri.from("a<b/:"), "Illegal character in path");
+        // Port checked before host
+        assertIAE(() -> Uri.from("a://<:a"), "Illegal character in port");
+        // Host checked before port range
+        UriSyntaxException e = assertThrows(UriSyntaxException.class, () -> Uri.from("//000 :80502"));
+        assertEquals("Illegal character in host", e.reason());
+        assertEquals(5, e.index());
+        // Malformed percent-encoded octet in host
+        assertIAE(() -> Uri.from("a://a%4:80"), "Malformed percent-encoded octet");
+    }
+
+    @Test
+    public void testTryParse() {
+        ParseResult r = Uri.tryParse(ALL);
+        assertTrue(r.isSuccess());
+        assertEquals(ALL, r.uri().toString());
+        assertSame(r.uri(), r.orElseThrow());
+        assertNull(r.reason());
+        assertEquals(-1, r.index());
+
+        String[] illegals = {"%EX", ":", "_:", "a://<@a", "a://<", "a://a:-1",
+                "a:<", "?<", "#<", "a_%41:", "a://[::%0]", "a://[:0]"};
+        for (String s : illegals) {
+            r = Uri.tryParse(s);
+            assertFalse(r.isSuccess());
+            assertNull(r.uri());
+            UriSyntaxException e = assertThrows(UriSyntaxException.class, () -> Uri.from(s));
+            assertEquals(e.input(), r.input());
+            assertEquals(e.reason(), r.reason());
+            assertEquals(e.index(), r.index());
+            assertEquals(e.getMessage(), r.toString());
+            assertThrows(UriSyntaxException.class, r::orElseThrow);
+        }
+    }
+
+    @Test
+    public void testParseAll() {
+        List<String> in = new ArrayList<>();
+        for (int i = 0; i < 10000; i++)
+            in.add(i % 7 == 0 ? "a://<" + i : "a://h/" + i);
+        BatchParseResult r = Uri.parseAll(in);
+        assertEquals(in.size(), r.size());
+        assertEquals((in.size() + 6) / 7, r.failureCount());
+        for (int i = 0; i < in.size(); i++) {
+            if (i % 7 == 0) {
+                assertNull(r.uri(i));
+                assertEquals(in.get(i), r.failure(i).input());
+                assertEquals("Illegal character in host", r.failure(i).reason());
+                assertEquals(4, r.failure(i).index());
+            } else {
+                assertNull(r.failure(i));
+                assertEquals("/" + i, r.uri(i).encodedPath());
+            }
+        }
+        assertEquals(0, Uri.parseAll(Collections.emptyList()).size());
     }
 
     @Test
@@ -372,6 +723,7 @@ public class UriTest {
         assertIAE(() -> b.encodedHost("[ILLEGAL]"), "Illegal character in IPv6 address");
         // Illegal port
         assertIAE(() -> b.port(-2));
+        assertIAE(() -> b.port(65536), "Port out of range");
         // Illegal query
         assertIAE(() -> b.encodedQuery("#"));
         // Illegal fragment